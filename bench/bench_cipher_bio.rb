@@ -0,0 +1,51 @@
+# Measures cipher BIO throughput, encrypting and decrypting through memory
+# BIOs, for a range of chunk sizes.
+#
+#   jruby -Ilib bench/bench_cipher_bio.rb [megabytes] [buffer sizes ...]
+#
+require 'benchmark'
+require 'openssl'
+
+BIO = org.jruby.ext.openssl.impl.BIO
+Cipher = javax.crypto.Cipher
+
+MB = (ARGV[0] || 64).to_i
+SIZES = ARGV.size > 1 ? ARGV[1..-1].map { |a| a.to_i } : [1024, 8192, 65536]
+
+key = javax.crypto.spec.SecretKeySpec.new(("k" * 16).to_java_bytes, "AES")
+iv = javax.crypto.spec.IvParameterSpec.new(("i" * 16).to_java_bytes)
+data = ("0123456789abcdef" * (MB * 65536)).to_java_bytes
+buf = Java::byte[65536].new
+
+def cipher(mode, key, iv)
+  c = Cipher.getInstance("AES/CBC/PKCS5Padding")
+  c.init(mode, key, iv)
+  c
+end
+
+def mb_per_sec(t)
+  "%8.1f MB/s" % (MB / t)
+end
+
+SIZES.each do |size|
+  encrypted = nil
+  enc = Benchmark.realtime do
+    sink = BIO.mem
+    bio = BIO.cipher_filter(cipher(Cipher::ENCRYPT_MODE, key, iv), size)
+    bio.push(sink)
+    off = 0
+    while off < data.length
+      n = [data.length - off, 65536].min
+      bio.write(data, off, n)
+      off += n
+    end
+    bio.flush
+    encrypted = sink.mem_copy
+  end
+  dec = Benchmark.realtime do
+    bio = BIO.cipher_filter(cipher(Cipher::DECRYPT_MODE, key, iv), size)
+    bio.push(BIO.mem_buf(encrypted))
+    while bio.read(buf, 0, buf.length) > 0; end
+  end
+  puts "%8d bytes  encrypt %s  decrypt %s" % [size, mb_per_sec(enc), mb_per_sec(dec)]
+end
@@ -0,0 +1,33 @@
+# Times PKCS7.encrypt to a growing number of recipients, where wrapping the
+# content key for every recipient dominates, and reports the cost per
+# recipient.
+#
+#   jruby -Ilib bench/bench_pkcs7_recipients.rb [bits] [counts ...]
+#
+require 'benchmark'
+require 'openssl'
+require File.join(File.dirname(__FILE__), '..', 'test', 'openssl', 'utils.rb')
+
+BITS = (ARGV[0] || 2048).to_i
+COUNTS = ARGV.size > 1 ? ARGV[1..-1].map { |a| a.to_i } : [1, 10, 50, 200, 500]
+
+keys = (1..4).map { OpenSSL::PKey::RSA.new(BITS) }
+now = Time.now
+certs = (1..COUNTS.max).map do |i|
+  name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=recipient#{i}")
+  OpenSSL::TestUtils.issue_cert(name, keys[i % keys.size], i, now, now + 3600, [],
+                                nil, nil, OpenSSL::Digest::SHA1.new)
+end
+content = "0123456789abcdef" * 4096
+cipher = OpenSSL::Cipher::Cipher.new("AES-128-CBC")
+
+# warm up
+OpenSSL::PKCS7.encrypt(certs[0, 20], content, cipher, OpenSSL::PKCS7::BINARY)
+
+COUNTS.each do |n|
+  recipients = certs[0, n]
+  t = Benchmark.realtime do
+    OpenSSL::PKCS7.encrypt(recipients, content, cipher, OpenSSL::PKCS7::BINARY)
+  end
+  puts "%5d recipients  %8.1f ms  %6.3f ms/recipient" % [n, t * 1000, t * 1000 / n]
+end
@@ -0,0 +1,40 @@
+# Signs, encrypts and parses PKCS7 messages of growing size, to watch time
+# and heap as content passes through memory BIOs.
+#
+#   jruby -J-Xmx4g -Ilib bench/bench_pkcs7_size.rb [megabytes ...]
+#
+require 'benchmark'
+require 'openssl'
+require File.join(File.dirname(__FILE__), '..', 'test', 'openssl', 'utils.rb')
+
+SIZES = ARGV.empty? ? [10, 100] : ARGV.map { |a| a.to_i }
+
+key = OpenSSL::TestUtils::TEST_KEY_RSA1024
+now = Time.now
+name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=bench")
+cert = OpenSSL::TestUtils.issue_cert(name, key, 1, now, now + 3600, [],
+                                     nil, nil, OpenSSL::Digest::SHA1.new)
+store = OpenSSL::X509::Store.new
+store.add_cert(cert)
+cipher = OpenSSL::Cipher::Cipher.new("AES-128-CBC")
+flags = OpenSSL::PKCS7::BINARY | OpenSSL::PKCS7::NOVERIFY
+
+def used_mb
+  rt = java.lang.Runtime.getRuntime
+  rt.gc
+  (rt.totalMemory - rt.freeMemory) / (1024 * 1024)
+end
+
+SIZES.each do |mb|
+  content = "0123456789abcdef" * (mb * 65536)
+  der = nil
+  puts "#{mb} MB"
+  Benchmark.bm(12) do |x|
+    x.report("sign") { der = OpenSSL::PKCS7.sign(cert, key, content, [], OpenSSL::PKCS7::BINARY).to_der }
+    x.report("verify") { OpenSSL::PKCS7.new(der).verify([], store, nil, flags) }
+    x.report("encrypt") { der = OpenSSL::PKCS7.encrypt([cert], content, cipher, OpenSSL::PKCS7::BINARY).to_der }
+    x.report("decrypt") { OpenSSL::PKCS7.new(der).decrypt(key, cert) }
+  end
+  puts "heap in use after: #{used_mb} MB" if defined?(JRUBY_VERSION)
+  content = der = nil
+end
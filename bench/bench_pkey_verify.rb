@@ -0,0 +1,28 @@
+# Measures PKey#verify throughput against a handful of keys, the way a
+# webhook/JWT verifier would use them.
+#
+#   jruby -Ilib bench/bench_pkey_verify.rb [iterations] [threads]
+#
+require 'benchmark'
+require 'openssl'
+
+ITERATIONS = (ARGV[0] || 20_000).to_i
+THREADS = (ARGV[1] || 4).to_i
+
+digest = OpenSSL::Digest::SHA256.new
+keys = (1..4).map { OpenSSL::PKey::RSA.new(2048) }
+data = "payload" * 64
+signed = keys.map { |k| [k.public_key, k.sign(digest, data)] }
+
+per_thread = ITERATIONS / THREADS
+time = Benchmark.realtime do
+  (1..THREADS).map do
+    Thread.new do
+      per_thread.times do |i|
+        key, sig = signed[i % signed.size]
+        raise "verify failed" unless key.verify(digest, sig, data)
+      end
+    end
+  end.each { |t| t.join }
+end
+puts "verify: %d ops in %.3fs (%.0f ops/s, %d threads)" % [per_thread * THREADS, time, per_thread * THREADS / time, THREADS]
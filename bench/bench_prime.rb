@@ -0,0 +1,27 @@
+# Compares the parallel safe prime search (what BN.generate_prime and
+# DH.new use) with the same search on a single thread.
+#
+#   jruby -Ilib bench/bench_prime.rb [rounds] [bits...]
+#
+require 'benchmark'
+require 'openssl'
+require 'java'
+
+PrimeGenerator = org.jruby.ext.openssl.PrimeGenerator
+
+ROUNDS = (ARGV.shift || 3).to_i
+BITS = ARGV.empty? ? [1024, 2048, 4096] : ARGV.map { |b| b.to_i }
+ADD = java.math.BigInteger.valueOf(24)
+REM = java.math.BigInteger.valueOf(11)
+
+puts "#{PrimeGenerator.java_class.name}, #{java.lang.Runtime.getRuntime.availableProcessors} processors"
+Benchmark.bm(16) do |bm|
+  BITS.each do |bits|
+    bm.report("serial #{bits}") do
+      ROUNDS.times { PrimeGenerator.generateSerial(bits, true, ADD, REM, 100) }
+    end
+    bm.report("parallel #{bits}") do
+      ROUNDS.times { PrimeGenerator.generate(bits, true, ADD, REM, 100) }
+    end
+  end
+end
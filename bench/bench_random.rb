@@ -0,0 +1,22 @@
+# Measures OpenSSL::Random throughput with an increasing number of threads.
+#
+#   jruby -Ilib bench/bench_random.rb [iterations] [bytes]
+#
+require 'benchmark'
+require 'openssl'
+
+ITERATIONS = (ARGV[0] || 20_000).to_i
+BYTES = (ARGV[1] || 32).to_i
+
+[1, 2, 4, 8, 16].each do |count|
+  [:random_bytes, :pseudo_bytes].each do |meth|
+    per_thread = ITERATIONS / count
+    time = Benchmark.realtime do
+      (1..count).map do
+        Thread.new { per_thread.times { OpenSSL::Random.send(meth, BYTES) } }
+      end.each { |t| t.join }
+    end
+    ops = per_thread * count
+    puts "%-13s threads=%-3d %8d ops in %6.3fs (%10.0f ops/s)" % [meth, count, ops, time, ops / time]
+  end
+end
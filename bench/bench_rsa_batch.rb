@@ -0,0 +1,23 @@
+# Compares per-item RSA private decryption and verification with the batch
+# forms (RSA#private_decrypt_all, RSA#verify_all).
+#
+#   jruby -Ilib bench/bench_rsa_batch.rb [items] [bits]
+#
+require 'benchmark'
+require 'openssl'
+
+ITEMS = (ARGV[0] || 2_000).to_i
+BITS = (ARGV[1] || 2048).to_i
+
+key = OpenSSL::PKey::RSA.new(BITS)
+digest = OpenSSL::Digest::SHA256.new
+plain = (1..ITEMS).map { |i| "token #{i}" }
+encrypted = key.public_encrypt_all(plain)
+pairs = plain.map { |m| [key.sign(digest, m), m] }
+
+Benchmark.bm(22) do |x|
+  x.report("private_decrypt") { encrypted.each { |e| key.private_decrypt(e) } }
+  x.report("private_decrypt_all") { key.private_decrypt_all(encrypted) }
+  x.report("verify") { pairs.each { |s, m| key.verify(digest, s, m) } }
+  x.report("verify_all") { key.verify_all(digest, pairs) }
+end
@@ -0,0 +1,30 @@
+# Measures RSA private-key decryption throughput at 2048 and 4096 bits.
+#
+#   jruby -Ilib bench/bench_rsa_private.rb [seconds] [threads]
+#
+require 'openssl'
+
+SECONDS = (ARGV[0] || 5).to_f
+THREADS = (ARGV[1] || 1).to_i
+
+[2048, 4096].each do |bits|
+  key = OpenSSL::PKey::RSA.new(bits)
+  encrypted = key.public_encrypt("premaster secret" * 2)
+  20.times { key.private_decrypt(encrypted) }
+
+  ops = 0
+  lock = Mutex.new
+  start = Time.now
+  (1..THREADS).map do
+    Thread.new do
+      n = 0
+      while Time.now - start < SECONDS
+        key.private_decrypt(encrypted)
+        n += 1
+      end
+      lock.synchronize { ops += n }
+    end
+  end.each { |t| t.join }
+  elapsed = Time.now - start
+  puts "private_decrypt %d bits: %d ops in %.2fs (%.1f ops/s, %d threads)" % [bits, ops, elapsed, ops / elapsed, THREADS]
+end
@@ -0,0 +1,93 @@
+# Measures certificate parse throughput for a certificate with a typical
+# set of extensions, reading nothing, the usual subject/not_after, or
+# every field.
+#
+#   jruby -Ilib bench/bench_x509_parse.rb [iterations]
+#
+# Repeated DER is served from the certificate cache after the first
+# parse, so the "same DER" rows mostly measure cache lookups; "distinct
+# DER" varies the serial on every iteration to miss the cache. For parse
+# numbers alone run with the cache off:
+#
+#   jruby -J-Djruby.openssl.x509.cache.size=0 -Ilib bench/bench_x509_parse.rb
+#
+require 'benchmark'
+require 'openssl'
+
+ITERATIONS = (ARGV[0] || 20_000).to_i
+
+key = OpenSSL::PKey::RSA.new(2048)
+name = OpenSSL::X509::Name.parse("/C=US/O=Example/OU=Bench/CN=bench.example.com")
+cert = OpenSSL::X509::Certificate.new
+cert.version = 2
+cert.serial = 0x1234567890
+cert.subject = name
+cert.issuer = name
+cert.public_key = key.public_key
+cert.not_before = Time.now
+cert.not_after = Time.now + 365 * 24 * 3600
+ef = OpenSSL::X509::ExtensionFactory.new
+ef.subject_certificate = cert
+ef.issuer_certificate = cert
+cert.add_extension(ef.create_extension("basicConstraints", "CA:FALSE", true))
+cert.add_extension(ef.create_extension("keyUsage", "digitalSignature,keyEncipherment", true))
+cert.add_extension(ef.create_extension("extendedKeyUsage", "serverAuth,clientAuth"))
+cert.add_extension(ef.create_extension("subjectKeyIdentifier", "hash"))
+cert.add_extension(ef.create_extension("authorityKeyIdentifier", "keyid:always"))
+cert.add_extension(ef.create_extension("subjectAltName", "DNS:bench.example.com,DNS:www.bench.example.com"))
+cert.add_extension(ef.create_extension("nsComment", "benchmark certificate"))
+cert.sign(key, OpenSSL::Digest::SHA1.new)
+der = cert.to_der
+
+# the same certificate with a different serial each time; parsing does not
+# check the signature, so these stay loadable
+serial_at = der.index(["1234567890"].pack("H*"))
+distinct = (0...ITERATIONS).map do |i|
+  variant = der.dup
+  variant[serial_at + 1, 4] = [i].pack("N")
+  variant
+end
+
+def cache_delta(before)
+  after = OpenSSL::X509::Certificate.cache_stats
+  hits = after["hits"] - before["hits"]
+  misses = after["misses"] - before["misses"]
+  total = hits + misses
+  rate = total == 0 ? 0.0 : 100.0 * hits / total
+  "#{hits} hits, #{misses} misses (#{'%.1f' % rate}% hit rate)"
+end
+
+def report(bm, stats, label)
+  before = OpenSSL::X509::Certificate.cache_stats
+  bm.report(label) { yield }
+  stats << [label, cache_delta(before)]
+end
+
+stats = []
+Benchmark.bm(28) do |bm|
+  report(bm, stats, "parse, same DER") { ITERATIONS.times { OpenSSL::X509::Certificate.new(der) } }
+  report(bm, stats, "parse, distinct DER") { distinct.each { |d| OpenSSL::X509::Certificate.new(d) } }
+  report(bm, stats, "subject/not_after, same DER") do
+    ITERATIONS.times do
+      c = OpenSSL::X509::Certificate.new(der)
+      c.subject
+      c.not_after
+    end
+  end
+  report(bm, stats, "all fields, same DER") do
+    ITERATIONS.times do
+      c = OpenSSL::X509::Certificate.new(der)
+      c.serial; c.subject; c.issuer; c.not_before; c.not_after; c.public_key; c.extensions
+    end
+  end
+  report(bm, stats, "all fields, distinct DER") do
+    distinct.each do |d|
+      c = OpenSSL::X509::Certificate.new(d)
+      c.serial; c.subject; c.issuer; c.not_before; c.not_after; c.public_key; c.extensions
+    end
+  end
+end
+
+puts
+puts "certificate cache (capacity #{OpenSSL::X509::Certificate.cache_stats['capacity']}):"
+stats.each { |label, line| puts "  %-28s %s" % [label, line] }
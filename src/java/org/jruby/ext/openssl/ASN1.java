@@ -36,11 +36,14 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,117 +81,69 @@ import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
  */
 public class ASN1 {
-    private static Map<Ruby, Map<String, DERObjectIdentifier>> SYM_TO_OID = new IdentityHashMap<Ruby, Map<String, DERObjectIdentifier>>();
-    private static Map<Ruby, Map<DERObjectIdentifier, String>> OID_TO_SYM = new IdentityHashMap<Ruby, Map<DERObjectIdentifier, String>>();
-    private static Map<Ruby, Map<DERObjectIdentifier, Integer>> OID_TO_NID = new IdentityHashMap<Ruby, Map<DERObjectIdentifier, Integer>>();
-    private static Map<Ruby, Map<Integer, DERObjectIdentifier>> NID_TO_OID = new IdentityHashMap<Ruby, Map<Integer, DERObjectIdentifier>>();
-    private static Map<Ruby, Map<Integer, String>> NID_TO_SN = new IdentityHashMap<Ruby, Map<Integer, String>>();
-    private static Map<Ruby, Map<Integer, String>> NID_TO_LN = new IdentityHashMap<Ruby, Map<Integer, String>>();
-
-
-    static void addObject(Ruby runtime, int nid, String sn, String ln, String oid) {
-        Map<String, DERObjectIdentifier> s2o = SYM_TO_OID.get(runtime);
-        Map<DERObjectIdentifier, String> o2s = OID_TO_SYM.get(runtime);
-        Map<DERObjectIdentifier, Integer> o2n = OID_TO_NID.get(runtime);
-        Map<Integer, DERObjectIdentifier> n2o = NID_TO_OID.get(runtime);
-        Map<Integer, String> n2s = NID_TO_SN.get(runtime);
-        Map<Integer, String> n2l = NID_TO_LN.get(runtime);
-        if(null != oid && (null != sn || null != ln)) {
-            DERObjectIdentifier ident = new DERObjectIdentifier(oid);
-            if(sn != null) {
-                s2o.put(sn.toLowerCase(),ident);
-            }
-            if(ln != null) {
-                s2o.put(ln.toLowerCase(),ident);
-            }
-            o2s.put(ident,sn == null ? ln : sn);
-            o2n.put(ident,nid);
-            n2o.put(nid,ident);
-            n2s.put(nid,sn);
-            n2l.put(nid,ln);
-        }        
-    }
-
-    @SuppressWarnings("unchecked")
-    private synchronized static void initMaps(Ruby runtime) {
-        Map<String, DERObjectIdentifier> val = new HashMap<String, DERObjectIdentifier>(org.bouncycastle.asn1.x509.X509Name.DefaultLookUp);
-        Map<DERObjectIdentifier, String> val2 = new HashMap<DERObjectIdentifier, String>(org.bouncycastle.asn1.x509.X509Name.DefaultSymbols);
-        SYM_TO_OID.put(runtime,val);
-        OID_TO_SYM.put(runtime,val2);
-        OID_TO_NID.put(runtime,new HashMap<DERObjectIdentifier, Integer>());
-        NID_TO_OID.put(runtime,new HashMap<Integer, DERObjectIdentifier>());
-        NID_TO_SN.put(runtime,new HashMap<Integer, String>());
-        NID_TO_LN.put(runtime,new HashMap<Integer, String>());
-        OpenSSLImpl.defaultObjects(runtime);
-    }
-
-    synchronized static Integer obj2nid(Ruby runtime, String oid) {
+    // built once from the default objects and shared by every runtime
+    // until it registers objects of its own
+    private static final OIDRegistry DEFAULT_REGISTRY;
+    private static final ConcurrentMap<Ruby, OIDRegistry> REGISTRIES = new ConcurrentHashMap<Ruby, OIDRegistry>();
+
+    static {
+        @SuppressWarnings("unchecked")
+        OIDRegistry.Builder builder = new OIDRegistry.Builder(org.bouncycastle.asn1.x509.X509Name.DefaultLookUp, org.bouncycastle.asn1.x509.X509Name.DefaultSymbols);
+        OpenSSLImpl.defaultObjects(builder);
+        DEFAULT_REGISTRY = builder.build();
+    }
+
+    static OIDRegistry getRegistry(Ruby runtime) {
+        OIDRegistry registry = REGISTRIES.get(runtime);
+        return registry != null ? registry : DEFAULT_REGISTRY;
+    }
+
+    private static synchronized void register(Ruby runtime, DERObjectIdentifier oid, String sn, String ln) {
+        REGISTRIES.put(runtime, getRegistry(runtime).register(oid, sn, ln));
+    }
+
+    static Integer obj2nid(Ruby runtime, String oid) {
         return obj2nid(runtime, new DERObjectIdentifier(oid));
     }
 
-    synchronized static String ln2oid(Ruby runtime, String ln) {
-        Map<String, DERObjectIdentifier> val = SYM_TO_OID.get(runtime);
-        if(null == val) {
-            initMaps(runtime);
-            val = SYM_TO_OID.get(runtime);
-        }
-        return val.get(ln).getId();
+    static String ln2oid(Ruby runtime, String ln) {
+        return getRegistry(runtime).getOIDLookup().get(ln).getId();
     }
 
-    synchronized static Integer obj2nid(Ruby runtime, DERObjectIdentifier oid) {
-        Map<DERObjectIdentifier, Integer> o2n = OID_TO_NID.get(runtime);
-        if(null == o2n) {
-            initMaps(runtime);
-            o2n = OID_TO_NID.get(runtime);
-        }
-        return o2n.get(oid);
+    static Integer obj2nid(Ruby runtime, DERObjectIdentifier oid) {
+        return getRegistry(runtime).obj2nid(oid);
     }
 
-    synchronized static String o2a(Ruby runtime, DERObjectIdentifier obj) {
-        Integer nid = obj2nid(runtime,obj);
-        Map<Integer, String> n2l = NID_TO_LN.get(runtime);
-        Map<Integer, String> n2s = NID_TO_SN.get(runtime);
-        String one = n2l.get(nid);
+    static String o2a(Ruby runtime, DERObjectIdentifier obj) {
+        OIDRegistry registry = getRegistry(runtime);
+        Integer nid = registry.obj2nid(obj);
+        String one = registry.nid2ln(nid);
         if(one == null) {
-            one = n2s.get(nid);
+            one = registry.nid2sn(nid);
         }
         return one;
     }
 
-    synchronized static String nid2ln(Ruby runtime, int nid) {
+    static String nid2ln(Ruby runtime, int nid) {
         return nid2ln(runtime, new Integer(nid));
     }
 
-    synchronized static String nid2ln(Ruby runtime, Integer nid) {
-        Map<Integer, String> n2l = NID_TO_LN.get(runtime);
-        if(null == n2l) {
-            initMaps(runtime);
-            n2l = NID_TO_LN.get(runtime);
-        }
-        return n2l.get(nid);
+    static String nid2ln(Ruby runtime, Integer nid) {
+        return getRegistry(runtime).nid2ln(nid);
     }
     
-    synchronized static Map<String, DERObjectIdentifier> getOIDLookup(Ruby runtime) {
-        Map<String, DERObjectIdentifier> val = SYM_TO_OID.get(runtime);
-        if(null == val) {
-            initMaps(runtime);
-            val = SYM_TO_OID.get(runtime);
-        }
-        return val;
+    static Map<String, DERObjectIdentifier> getOIDLookup(Ruby runtime) {
+        return getRegistry(runtime).getOIDLookup();
     }
 
-    synchronized static Map<DERObjectIdentifier, String> getSymLookup(Ruby runtime) {
-        Map<DERObjectIdentifier, String> val = OID_TO_SYM.get(runtime);
-        if(null == val) {
-            initMaps(runtime);
-            val = OID_TO_SYM.get(runtime);
-        }
-        return val;
+    static Map<DERObjectIdentifier, String> getSymLookup(Ruby runtime) {
+        return getRegistry(runtime).getSymLookup();
     }
 
     private final static Object[][] ASN1_INFO = {
@@ -324,33 +279,11 @@ public class ASN1 {
 
 
     private static String getShortNameFor(Ruby runtime, String nameOrOid) {
-        DERObjectIdentifier oid = getObjectIdentifier(runtime,nameOrOid);
-        Map em = getOIDLookup(runtime);
-        String name = null;
-        for(Iterator iter = em.keySet().iterator();iter.hasNext();) {
-            Object key = iter.next();
-            if(oid.equals(em.get(key))) {
-                if(name == null || ((String)key).length() < name.length()) {
-                    name = (String)key;
-                }
-            }
-        }
-        return name;
+        return getRegistry(runtime).getShortName(getObjectIdentifier(runtime,nameOrOid));
     }
 
     private static String getLongNameFor(Ruby runtime, String nameOrOid) {
-        DERObjectIdentifier oid = getObjectIdentifier(runtime,nameOrOid);
-        Map em = getOIDLookup(runtime);
-        String name = null;
-        for(Iterator iter = em.keySet().iterator();iter.hasNext();) {
-            Object key = iter.next();
-            if(oid.equals(em.get(key))) {
-                if(name == null || ((String)key).length() > name.length()) {
-                    name = (String)key;
-                }
-            }
-        }
-        return name;
+        return getRegistry(runtime).getLongName(getObjectIdentifier(runtime,nameOrOid));
     }
 
     private static DERObjectIdentifier getObjectIdentifier(Ruby runtime, String nameOrOid) {
@@ -472,19 +405,58 @@ public class ASN1 {
         return ((RubyModule)recv).getClass("Set").callMethod(recv.getRuntime().getCurrentContext(),"new",args);
     }
 
+    private static final String[] TAG_CLASSES = {"UNIVERSAL", "APPLICATION", "CONTEXT_SPECIFIC", "PRIVATE"};
+
+    /**
+     * Walks every element of a DER string or IO, yielding
+     * depth, offset, header_len, length, constructed, tag_class, tag
+     * without decoding any of them. Length is nil for indefinite lengths.
+ * Without a block an enumerator over the same tuples is returned.
+     */
     @JRubyMethod(meta=true, required=1)
-    public static IRubyObject traverse(IRubyObject recv, IRubyObject a) {
-        System.err.println("WARNING: unimplemented method called: traverse");
-        return null;
+    public static IRubyObject traverse(final IRubyObject recv, IRubyObject a, final Block block) {
+        final Ruby runtime = recv.getRuntime();
+        final ThreadContext ctx = runtime.getCurrentContext();
+        if(!block.isGiven()) {
+            return recv.callMethod(ctx, "enum_for", new IRubyObject[]{runtime.newSymbol("traverse"), a});
+        }
+        final RubySymbol[] tagClasses = new RubySymbol[TAG_CLASSES.length];
+        for (int i = 0; i < tagClasses.length; i++) {
+            tagClasses[i] = runtime.newSymbol(TAG_CLASSES[i]);
+        }
+        try {
+            new ASN1Reader(openInput(a)).traverse(new ASN1Reader.Visitor() {
+                    public void visit(int depth, long offset, int headerLength, long length, boolean constructed, int tagClass, int tag) {
+                        IRubyObject[] values = new IRubyObject[] {
+                            runtime.newFixnum(depth),
+                            runtime.newFixnum(offset),
+                            runtime.newFixnum(headerLength),
+                            length < 0 ? runtime.getNil() : runtime.newFixnum(length),
+                            runtime.newBoolean(constructed),
+                            tagClasses[tagClass >> 6],
+                            runtime.newFixnum(tag)};
+                        block.yield(ctx, runtime.newArrayNoCopy(values), null, null, true);
+                    }
+                });
+        } catch(IOException e) {
+            throw runtime.newIOErrorFromException(e);
+        }
+        return runtime.getNil();
+    }
+
+    private static InputStream openInput(IRubyObject obj) {
+        if (obj.respondsTo("read")) {
+            return new IOInputStream(obj);
+        }
+        ByteList bl = OpenSSLImpl.to_der_if_possible(obj).convertToString().getByteList();
+        return new ByteArrayInputStream(bl.bytes, bl.begin, bl.realSize);
     }
 
     public static class ObjectId {
         @JRubyMethod(meta=true, rest=true)
         public static IRubyObject register(IRubyObject recv, IRubyObject[] args) {
             DERObjectIdentifier deroi = new DERObjectIdentifier(args[0].toString());
-            getOIDLookup(recv.getRuntime()).put(args[1].toString().toLowerCase(),deroi);
-            getOIDLookup(recv.getRuntime()).put(args[2].toString().toLowerCase(),deroi);
-            getSymLookup(recv.getRuntime()).put(deroi,args[1].toString());
+            ASN1.register(recv.getRuntime(), deroi, args[1].toString(), args[2].toString());
             return recv.getRuntime().getTrue();
         }
 
@@ -590,10 +562,46 @@ public class ASN1 {
         }
     }
 
+    /**
+     * Decodes every top-level element of a DER string or IO. With a block
+     * each element is yielded as soon as it has been read, so only one of
+     * them is held at a time; without one they are returned as an array.
+     */
     @JRubyMethod(meta=true, required=1)
-    public static IRubyObject decode_all(IRubyObject recv, IRubyObject a) {
-        System.err.println("WARNING: unimplemented method called: decode_all");
-        return null;
+    public static IRubyObject decode_all(IRubyObject recv, IRubyObject a, Block block) {
+        Ruby runtime = recv.getRuntime();
+        RubyModule asnM = (RubyModule)recv;
+        ThreadContext ctx = runtime.getCurrentContext();
+        RubyArray result = block.isGiven() ? null : runtime.newArray();
+        ASN1Reader reader = new ASN1Reader(openInput(a));
+        IRubyObject obj;
+        while ((obj = decodeNext(asnM, reader)) != null) {
+            // yield outside the decode guard so break/throw from the block
+            // is not turned into an ArgumentError
+            if (result == null) {
+                block.yield(ctx, obj);
+            } else {
+                result.append(obj);
+            }
+        }
+        return result == null ? runtime.getNil() : result;
+    }
+
+    private static IRubyObject decodeNext(RubyModule asnM, ASN1Reader reader) {
+        Ruby runtime = asnM.getRuntime();
+        try {
+            byte[] element = reader.readElement();
+            if (element == null) {
+                return null;
+            }
+            return decodeObj(asnM, new ASN1InputStream(element).readObject());
+        } catch(IOException e) {
+            throw runtime.newIOErrorFromException(e);
+        } catch(RaiseException e) {
+            throw e;
+        } catch(Exception e) {
+            throw runtime.newArgumentError(e.getMessage());
+        }
     }
 
     public static class ASN1Data extends RubyObject {
@@ -0,0 +1,255 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads DER/BER encoded data one element at a time from a stream, so large
+ * inputs (CRLs, PKCS#7 bundles) never have to be held as a whole. Elements
+ * can be read out whole, one top-level element at a time, or walked tag by
+ * tag without building any objects for them.
+ */
+public class ASN1Reader {
+    public static final int UNIVERSAL = 0x00;
+    public static final int APPLICATION = 0x40;
+    public static final int CONTEXT_SPECIFIC = 0x80;
+    public static final int PRIVATE = 0xC0;
+
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Receives every element met by {@link ASN1Reader#traverse}. The length
+     * is -1 for indefinite length encodings.
+     */
+    public interface Visitor {
+        void visit(int depth, long offset, int headerLength, long length, boolean constructed, int tagClass, int tag) throws IOException;
+    }
+
+    private static class Header {
+        long offset;
+        int headerLength;
+        long length;
+        boolean constructed;
+        int tagClass;
+        int tag;
+
+        boolean isEndOfContents() {
+            return tagClass == UNIVERSAL && tag == 0 && !constructed && length == 0;
+        }
+    }
+
+    private final InputStream in;
+    private long offset;
+    private byte[] skipBuffer;
+
+    public ASN1Reader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Offset into the input of the next unread byte.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads the next top-level element, header and contents, or returns
+     * null at the end of the input.
+     */
+    public byte[] readElement() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!copyElement(out, null)) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Walks every element of the input depth first, top-level elements at
+     * depth 0, skipping over the contents of primitive ones.
+     */
+    public void traverse(Visitor visitor) throws IOException {
+        walk(visitor, 0, Long.MAX_VALUE);
+    }
+
+    private void walk(Visitor visitor, int depth, long end) throws IOException {
+        while (end < 0 || offset < end) {
+            Header h = readHeader(null, depth == 0);
+            if (h == null) {
+                return;
+            }
+            if (end < 0 && h.isEndOfContents()) {
+                return;
+            }
+            visitor.visit(depth, h.offset, h.headerLength, h.length, h.constructed, h.tagClass, h.tag);
+            if (h.constructed) {
+                walk(visitor, depth + 1, h.length < 0 ? -1 : offset + h.length);
+            } else {
+                skip(h.length);
+            }
+        }
+        if (end >= 0 && offset > end) {
+            throw new IOException("ASN.1 element overruns its enclosing length");
+        }
+    }
+
+    /**
+     * Copies one element to out; false if the input ended before it began.
+     */
+    private boolean copyElement(OutputStream out, Header into) throws IOException {
+        Header h = readHeader(out, into == null);
+        if (h == null) {
+            return false;
+        }
+        if (into != null) {
+            into.tagClass = h.tagClass;
+            into.tag = h.tag;
+            into.constructed = h.constructed;
+            into.length = h.length;
+        }
+        if (h.length >= 0) {
+            copy(out, h.length);
+        } else {
+            // indefinite length: copy children up to and including the end-of-contents
+            Header child = new Header();
+            do {
+                copyElement(out, child);
+            } while (!child.isEndOfContents());
+        }
+        return true;
+    }
+
+    private Header readHeader(OutputStream out, boolean eofAllowed) throws IOException {
+        long start = offset;
+        int b = in.read();
+        if (b < 0) {
+            if (eofAllowed) {
+                return null;
+            }
+            throw new EOFException("truncated ASN.1 data");
+        }
+        offset++;
+        if (out != null) {
+            out.write(b);
+        }
+        Header h = new Header();
+        h.offset = start;
+        h.tagClass = b & 0xC0;
+        h.constructed = (b & 0x20) != 0;
+        h.tag = b & 0x1F;
+        if (h.tag == 0x1F) {
+            int tag = 0;
+            do {
+                b = readByte(out);
+                if (tag > (Integer.MAX_VALUE >> 7)) {
+                    throw new IOException("ASN.1 tag number too large");
+                }
+                tag = (tag << 7) | (b & 0x7F);
+            } while ((b & 0x80) != 0);
+            h.tag = tag;
+        }
+
+        int l = readByte(out);
+        if (l < 0x80) {
+            h.length = l;
+        } else if (l == 0x80) {
+            if (!h.constructed) {
+                throw new IOException("indefinite length on a primitive ASN.1 element");
+            }
+            h.length = -1;
+        } else {
+            int n = l & 0x7F;
+            if (n > 8) {
+                throw new IOException("ASN.1 length too long");
+            }
+            long length = 0;
+            for (int i = 0; i < n; i++) {
+                length = (length << 8) | readByte(out);
+            }
+            if (length < 0) {
+                throw new IOException("ASN.1 length too long");
+            }
+            h.length = length;
+        }
+        h.headerLength = (int) (offset - start);
+        return h;
+    }
+
+    private int readByte(OutputStream out) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("truncated ASN.1 data");
+        }
+        offset++;
+        if (out != null) {
+            out.write(b);
+        }
+        return b;
+    }
+
+    private void copy(OutputStream out, long length) throws IOException {
+        byte[] buf = getSkipBuffer();
+        while (length > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+            if (n < 0) {
+                throw new EOFException("truncated ASN.1 data");
+            }
+            out.write(buf, 0, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                // skip may give up early; fall back to reading
+                n = in.read(getSkipBuffer(), 0, (int) Math.min(SKIP_BUFFER_SIZE, length));
+                if (n < 0) {
+                    throw new EOFException("truncated ASN.1 data");
+                }
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private byte[] getSkipBuffer() {
+        if (skipBuffer == null) {
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        }
+        return skipBuffer;
+    }
+}
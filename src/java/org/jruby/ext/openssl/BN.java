@@ -67,8 +67,6 @@ public class BN extends RubyObject {
     private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
     private static final BigInteger TWO = BigInteger.valueOf(2);
     private static final int DEFAULT_CERTAINTY = 100;
-    private static Random _random;
-    private static SecureRandom _secureRandom;
 
     private static ObjectAllocator BN_ALLOCATOR = new ObjectAllocator() {
         public IRubyObject allocate(Ruby runtime, RubyClass klass) {
@@ -589,31 +587,10 @@ public class BN extends RubyObject {
             rem = BigInteger.ONE;
         }
         
-        // borrowing technique from org.bouncycastle.crypto.generators.DHParametersHelper
-        // (unfortunately the code has package visibility), wherein for safe primes,
-        // we'll use the lowest useful certainty (2) for generation of q, then if
-        // p ( = 2q + 1) is prime to our required certainty (100), we'll verify that q
-        // is as well.
-        //
-        // for typical bit lengths ( >= 1024), this should speed things up by reducing
-        // initial Miller-Rabin iterations from 2 to 1 for candidate values of q.
-        //
-        // it's still painfully slow...
-        //
-        BigInteger p, q;
-        int qbits = bits - 1;
-        SecureRandom secureRandom = getSecureRandom();
-        do {
-            if (safe) {
-                do {
-                    q = new BigInteger(qbits, 2, secureRandom);
-                    p = q.shiftLeft(1).setBit(0);
-                } while (!(p.isProbablePrime(DEFAULT_CERTAINTY) && q.isProbablePrime(DEFAULT_CERTAINTY)));
-            } else {
-                p = BigInteger.probablePrime(bits, secureRandom); 
-            }
-        } while (add != null && !p.mod(add).equals(rem));
-        return p;
+        // candidates are sieved over the small primes before any Miller-Rabin
+        // rounds, and large searches are spread over all processors --
+        // see PrimeGenerator
+        return PrimeGenerator.generate(bits, safe, add, rem, DEFAULT_CERTAINTY);
     }
     
     public static BigInteger generatePrime(int bits, boolean safe) {
@@ -732,20 +709,11 @@ public class BN extends RubyObject {
     }
     
     private static Random getRandom() {
-        Random rand;
-        if ((rand = _random) != null) {
-            return rand;
-        }
-        return _random = new Random();
+        return RandomService.getSecureRandom();
     }
     
     private static SecureRandom getSecureRandom() {
-        SecureRandom rand;
-        if ((rand = _secureRandom) != null) {
-            return rand;
-        }
-        // FIXME: do we want a particular algorithm / provider? BC?
-        return _secureRandom = new SecureRandom();
+        return RandomService.getSecureRandom();
     }
 
     public static RaiseException newBNError(Ruby runtime, String message) {
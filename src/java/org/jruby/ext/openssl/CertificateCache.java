@@ -0,0 +1,164 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interns parsed certificates by the SHA-256 of their DER, so that the same
+ * peer or chain certificate seen over and over is parsed once. Holds at
+ * most {@link #getCapacity()} entries, least recently used out first, and
+ * only softly, so the cache gives way under memory pressure.
+ *
+ * Ruby certificate objects can be modified, so every caller still gets its
+ * own X509::Certificate; what is shared is the parsed X509Certificate and
+ * its PublicKey, which are never changed in place.
+ *
+ * The capacity defaults to 1024 and can be set with the
+ * <code>jruby.openssl.x509.cache.size</code> system property; 0 disables
+ * the cache.
+ */
+public class CertificateCache {
+    public final static String SIZE_PROPERTY = "jruby.openssl.x509.cache.size";
+    public final static int DEFAULT_SIZE = 1024;
+
+    public static class Parsed {
+        private final X509Certificate cert;
+        private volatile PublicKey publicKey;
+
+        Parsed(X509Certificate cert) {
+            this.cert = cert;
+        }
+
+        public X509Certificate getCertificate() {
+            return cert;
+        }
+
+        /**
+         * The certificate's key; BC decodes it again on every getPublicKey.
+         */
+        public PublicKey getPublicKey() {
+            PublicKey key = publicKey;
+            if (key == null) {
+                publicKey = key = cert.getPublicKey();
+            }
+            return key;
+        }
+    }
+
+    private static final int capacity;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final Map<ByteBuffer, SoftReference<Parsed>> entries = new LinkedHashMap<ByteBuffer, SoftReference<Parsed>>(64, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SoftReference<Parsed>> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    static {
+        int size = DEFAULT_SIZE;
+        try {
+            String value = System.getProperty(SIZE_PROPERTY);
+            if (value != null) {
+                size = Integer.parseInt(value.trim());
+            }
+        } catch (SecurityException e) {
+            // not allowed to look at properties, use the default
+        } catch (NumberFormatException e) {
+            // keep the default
+        }
+        capacity = Math.max(size, 0);
+    }
+
+    private CertificateCache() {}
+
+    /**
+     * Returns the parsed form of the DER encoded certificate, parsing it
+     * only if it is not already cached.
+     */
+    public static Parsed get(byte[] der) throws GeneralSecurityException {
+        if (capacity == 0) {
+            return new Parsed(parse(der));
+        }
+        ByteBuffer key = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(der));
+        synchronized (entries) {
+            SoftReference<Parsed> ref = entries.get(key);
+            Parsed entry = ref == null ? null : ref.get();
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+        }
+        misses.incrementAndGet();
+        Parsed entry = new Parsed(parse(der));
+        synchronized (entries) {
+            entries.put(key, new SoftReference<Parsed>(entry));
+        }
+        return entry;
+    }
+
+    private static X509Certificate parse(byte[] der) throws GeneralSecurityException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509", OpenSSLReal.PROVIDER);
+        return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(der));
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public static int getCapacity() {
+        return capacity;
+    }
+
+    public static int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+}
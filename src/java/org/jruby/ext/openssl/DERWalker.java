@@ -0,0 +1,153 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.IOException;
+
+/**
+ * Steps through the elements of definite length DER held in a byte array
+ * without decoding them, so that large structures such as CRLs can be
+ * picked apart in place and only the pieces needed get parsed.
+ */
+public class DERWalker {
+    private final byte[] der;
+    private final int end;
+    private int pos;
+
+    public DERWalker(byte[] der) {
+        this(der, 0, der.length);
+    }
+
+    public DERWalker(byte[] der, int start, int end) {
+        this.der = der;
+        this.pos = start;
+        this.end = end;
+    }
+
+    public byte[] getBytes() {
+        return der;
+    }
+
+    /**
+     * Position of the next element.
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public boolean hasNext() {
+        return pos < end;
+    }
+
+    /**
+     * Identifier octet of the next element, or -1 at the end.
+     */
+    public int peekTag() {
+        return pos < end ? der[pos] & 0xFF : -1;
+    }
+
+    /**
+     * Moves past the next element, which must have the given identifier
+     * octet, and returns a walker over its contents.
+     */
+    public DERWalker enter(int tag) throws IOException {
+        expect(tag);
+        int[] range = range(pos);
+        pos = range[1];
+        return new DERWalker(der, range[0], range[1]);
+    }
+
+    /**
+     * Moves past the next element, which must have the given identifier
+     * octet, and returns a copy of its contents.
+     */
+    public byte[] contents(int tag) throws IOException {
+        DERWalker inner = enter(tag);
+        byte[] out = new byte[inner.end - inner.pos];
+        System.arraycopy(der, inner.pos, out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * Moves past the next element and returns a copy of all of it, header
+     * included.
+     */
+    public byte[] element() throws IOException {
+        int start = pos;
+        skip();
+        byte[] out = new byte[pos - start];
+        System.arraycopy(der, start, out, 0, out.length);
+        return out;
+    }
+
+    public void skip() throws IOException {
+        if (pos >= end) {
+            throw new IOException("malformed DER: unexpected end of data");
+        }
+        pos = range(pos)[1];
+    }
+
+    private void expect(int tag) throws IOException {
+        if (peekTag() != tag) {
+            throw new IOException("malformed DER: expected tag 0x" + Integer.toHexString(tag) + " at " + pos);
+        }
+    }
+
+    /**
+     * Start and end of the contents of the element at start; only low tag
+     * numbers are supported, which is all X.509 uses.
+     */
+    private int[] range(int start) throws IOException {
+        int p = start + 1;
+        if (p >= end) {
+            throw new IOException("malformed DER: unexpected end of data");
+        }
+        int length = der[p++] & 0xFF;
+        if (length == 0x80) {
+            throw new IOException("malformed DER: indefinite length");
+        } else if (length > 0x80) {
+            int n = length & 0x7F;
+            if (n > 4 || p + n > end) {
+                throw new IOException("malformed DER: bad length");
+            }
+            length = 0;
+            for (int i = 0; i < n; i++) {
+                length = (length << 8) | (der[p++] & 0xFF);
+            }
+        }
+        int contentsEnd = p + length;
+        if (length < 0 || contentsEnd > end || contentsEnd < p) {
+            throw new IOException("malformed DER: length overruns data");
+        }
+        return new int[] { p, contentsEnd };
+    }
+}// DERWalker
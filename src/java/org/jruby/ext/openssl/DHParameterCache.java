@@ -0,0 +1,203 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.spec.DHParameterSpec;
+
+import org.jruby.ext.openssl.x509store.PEMInputOutput;
+
+/**
+ * Keeps one generated prime per (bits, g) so that only the first
+ * <code>DH.new(bits)</code> pays for the safe prime search. Entries can be
+ * generated ahead of time on a background thread with
+ * {@link #precompute(int, int)}, and when a file is configured (the
+ * <code>jruby.openssl.dh.cache.file</code> system property or
+ * {@link #setFile(String)}) they are read from it and every newly generated
+ * prime is appended to it as DH PARAMETERS.
+ */
+public class DHParameterCache {
+    public final static String FILE_PROPERTY = "jruby.openssl.dh.cache.file";
+
+    private static final ConcurrentMap<String, Future<BigInteger>> entries = new ConcurrentHashMap<String, Future<BigInteger>>();
+    private static ExecutorService background;
+    private static volatile String file;
+
+    static {
+        String path = null;
+        try {
+            path = System.getProperty(FILE_PROPERTY);
+        } catch (SecurityException e) {
+            // not allowed to look at properties, no persistence
+        }
+        if (path != null) {
+            try {
+                setFile(path);
+            } catch (IOException e) {
+                // unreadable cache file, start with an empty cache
+            }
+        }
+    }
+
+    private DHParameterCache() {}
+
+    /**
+     * Returns the cached prime for bits and g, generating (and caching) it
+     * on the calling thread if it is not there yet.
+     */
+    public static BigInteger getP(int bits, int g) {
+        FutureTask<BigInteger> task = newTask(bits, g);
+        Future<BigInteger> entry = entries.putIfAbsent(key(bits, g), task);
+        if (entry == null) {
+            task.run();
+            entry = task;
+        }
+        try {
+            return entry.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while generating DH parameters");
+        } catch (ExecutionException e) {
+            entries.remove(key(bits, g), entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause.getMessage());
+        }
+    }
+
+    /**
+     * Starts generating the prime for bits and g in the background, unless
+     * it is already cached or being generated.
+     */
+    public static void precompute(int bits, int g) {
+        if (bits < 2) throw new IllegalArgumentException("invalid bit length");
+        if (g < 2) throw new IllegalArgumentException("invalid generator");
+        FutureTask<BigInteger> task = newTask(bits, g);
+        if (entries.putIfAbsent(key(bits, g), task) == null) {
+            getBackground().execute(task);
+        }
+    }
+
+    public static boolean isCached(int bits, int g) {
+        Future<BigInteger> entry = entries.get(key(bits, g));
+        return entry != null && entry.isDone();
+    }
+
+    public static String getFile() {
+        return file;
+    }
+
+    /**
+     * Loads all parameters found in path and appends new ones to it from
+     * now on. A null path turns persistence off.
+     */
+    public static synchronized void setFile(String path) throws IOException {
+        if (path != null && new File(path).exists()) {
+            BufferedReader in = new BufferedReader(new FileReader(path));
+            try {
+                while (true) {
+                    DHParameterSpec spec;
+                    try {
+                        spec = PEMInputOutput.readDHParameters(in);
+                    } catch (InvalidParameterSpecException e) {
+                        break; // no more parameters
+                    }
+                    put(spec.getP(), spec.getG().intValue());
+                }
+            } finally {
+                try { in.close(); } catch (Exception e) {}
+            }
+        }
+        file = path;
+    }
+
+    private static void put(final BigInteger p, int g) {
+        FutureTask<BigInteger> task = new FutureTask<BigInteger>(new Callable<BigInteger>() {
+            public BigInteger call() {
+                return p;
+            }
+        });
+        task.run();
+        entries.putIfAbsent(key(p.bitLength(), g), task);
+    }
+
+    private static FutureTask<BigInteger> newTask(final int bits, final int g) {
+        return new FutureTask<BigInteger>(new Callable<BigInteger>() {
+            public BigInteger call() {
+                BigInteger p = PKeyDH.generateP(bits, g);
+                persist(p, g);
+                return p;
+            }
+        });
+    }
+
+    private static synchronized void persist(BigInteger p, int g) {
+        if (file == null) {
+            return;
+        }
+        FileWriter out = null;
+        try {
+            out = new FileWriter(file, true);
+            PEMInputOutput.writeDHParameters(out, new DHParameterSpec(p, BigInteger.valueOf(g)));
+        } catch (IOException e) {
+            // the cache works fine without the file
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (Exception e) {}
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getBackground() {
+        if (background == null) {
+            background = Executors.newSingleThreadExecutor(new WorkerPool.DaemonThreadFactory("jruby-openssl-dh"));
+        }
+        return background;
+    }
+
+    private static String key(int bits, int g) {
+        return bits + ":" + g;
+    }
+}// DHParameterCache
@@ -0,0 +1,158 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.io.IOException;
+
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERObject;
+import org.bouncycastle.asn1.DEROctetString;
+
+/**
+ * Tells what kind of key encoding some input is, by its PEM label or by
+ * the shape of its outermost DER sequence, so that key loading can go
+ * straight to the one decoder that understands it instead of trying them
+ * all in turn.
+ */
+public class KeyFormat {
+    public static final int UNKNOWN = 0;
+    /** PEM "RSA PRIVATE KEY" or "DSA PRIVATE KEY" */
+    public static final int PEM_PRIVATE = 1;
+    /** PEM "PUBLIC KEY", "RSA PUBLIC KEY" or "DSA PUBLIC KEY" */
+    public static final int PEM_PUBLIC = 2;
+    /** DER sequence of integers only: PKCS#1 RSAPrivateKey or OpenSSL DSA private key */
+    public static final int DER_PRIVATE = 3;
+    /** DER sequence of two integers: PKCS#1 RSAPublicKey */
+    public static final int DER_PUBLIC = 4;
+    /** DER SubjectPublicKeyInfo */
+    public static final int DER_SPKI = 5;
+    /** DER PKCS#8 PrivateKeyInfo */
+    public static final int DER_PKCS8 = 6;
+
+    private static final String PEM_BEGIN = "-----BEGIN ";
+    private static final int DER_SEQUENCE = 0x30;
+
+    private final int format;
+    private final ASN1Sequence sequence;
+
+    private KeyFormat(int format, ASN1Sequence sequence) {
+        this.format = format;
+        this.sequence = sequence;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * The already parsed outer sequence for DER input, null otherwise.
+     */
+    public ASN1Sequence getSequence() {
+        return sequence;
+    }
+
+    public static KeyFormat detect(byte[] input) {
+        if (input.length == 0) {
+            return new KeyFormat(UNKNOWN, null);
+        }
+        if ((input[0] & 0xff) == DER_SEQUENCE) {
+            return detectDER(input);
+        }
+        return new KeyFormat(detectPEM(input), null);
+    }
+
+    private static int detectPEM(byte[] input) {
+        int begin = indexOf(input, PEM_BEGIN, 0);
+        if (begin == -1) {
+            return UNKNOWN;
+        }
+        begin += PEM_BEGIN.length();
+        int end = indexOf(input, "-----", begin);
+        if (end == -1) {
+            return UNKNOWN;
+        }
+        String label = new String(input, begin, end - begin);
+        if (label.equals("RSA PRIVATE KEY") || label.equals("DSA PRIVATE KEY")) {
+            return PEM_PRIVATE;
+        }
+        if (label.equals("PUBLIC KEY") || label.equals("RSA PUBLIC KEY") || label.equals("DSA PUBLIC KEY")) {
+            return PEM_PUBLIC;
+        }
+        return UNKNOWN;
+    }
+
+    private static KeyFormat detectDER(byte[] input) {
+        DERObject obj;
+        try {
+            obj = new ASN1InputStream(input).readObject();
+        } catch (IOException e) {
+            return new KeyFormat(UNKNOWN, null);
+        } catch (RuntimeException e) {
+            // BC throws these on some malformed encodings
+            return new KeyFormat(UNKNOWN, null);
+        }
+        if (!(obj instanceof ASN1Sequence)) {
+            return new KeyFormat(UNKNOWN, null);
+        }
+        ASN1Sequence seq = (ASN1Sequence)obj;
+        int size = seq.size();
+        if (size == 2 && seq.getObjectAt(0) instanceof ASN1Sequence && seq.getObjectAt(1) instanceof DERBitString) {
+            return new KeyFormat(DER_SPKI, seq);
+        }
+        if (size >= 3 && seq.getObjectAt(0) instanceof DERInteger &&
+                seq.getObjectAt(1) instanceof ASN1Sequence && seq.getObjectAt(2) instanceof DEROctetString) {
+            return new KeyFormat(DER_PKCS8, seq);
+        }
+        for (int i = 0; i < size; i++) {
+            if (!(seq.getObjectAt(i) instanceof DERInteger)) {
+                return new KeyFormat(UNKNOWN, seq);
+            }
+        }
+        if (size == 2) {
+            return new KeyFormat(DER_PUBLIC, seq);
+        }
+        return new KeyFormat(size > 2 ? DER_PRIVATE : UNKNOWN, seq);
+    }
+
+    private static int indexOf(byte[] input, String str, int from) {
+        int last = input.length - str.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < str.length(); j++) {
+                if (input[i + j] != str.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}// KeyFormat
@@ -0,0 +1,174 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.DERObjectIdentifier;
+
+/**
+ * An immutable set of indexes between object identifiers, their names and
+ * NIDs. Lookups need no locking; adding an object builds a new registry
+ * from a copy, which is fine for something as rare as
+ * ObjectId.register.
+ */
+public class OIDRegistry {
+    private final Map<String, DERObjectIdentifier> nameToOid;
+    private final Map<DERObjectIdentifier, String> oidToSym;
+    private final Map<DERObjectIdentifier, String> shortNames;
+    private final Map<DERObjectIdentifier, String> longNames;
+    private final Map<DERObjectIdentifier, Integer> oidToNid;
+    private final Map<Integer, DERObjectIdentifier> nidToOid;
+    private final Map<Integer, String> nidToSn;
+    private final Map<Integer, String> nidToLn;
+
+    private OIDRegistry(Builder b) {
+        this.nameToOid = Collections.unmodifiableMap(b.nameToOid);
+        this.oidToSym = Collections.unmodifiableMap(b.oidToSym);
+        this.oidToNid = Collections.unmodifiableMap(b.oidToNid);
+        this.nidToOid = Collections.unmodifiableMap(b.nidToOid);
+        this.nidToSn = Collections.unmodifiableMap(b.nidToSn);
+        this.nidToLn = Collections.unmodifiableMap(b.nidToLn);
+
+        // the shortest and longest of all names each oid is known by
+        Map<DERObjectIdentifier, String> shortest = new HashMap<DERObjectIdentifier, String>();
+        Map<DERObjectIdentifier, String> longest = new HashMap<DERObjectIdentifier, String>();
+        for (Map.Entry<String, DERObjectIdentifier> e : b.nameToOid.entrySet()) {
+            String name = e.getKey();
+            String s = shortest.get(e.getValue());
+            if (s == null || name.length() < s.length()) {
+                shortest.put(e.getValue(), name);
+            }
+            String l = longest.get(e.getValue());
+            if (l == null || name.length() > l.length()) {
+                longest.put(e.getValue(), name);
+            }
+        }
+        this.shortNames = shortest;
+        this.longNames = longest;
+    }
+
+    /**
+     * Lower-cased short and long names to object identifiers.
+     */
+    public Map<String, DERObjectIdentifier> getOIDLookup() {
+        return nameToOid;
+    }
+
+    /**
+     * Object identifiers to the name they print as.
+     */
+    public Map<DERObjectIdentifier, String> getSymLookup() {
+        return oidToSym;
+    }
+
+    public String getShortName(DERObjectIdentifier oid) {
+        return shortNames.get(oid);
+    }
+
+    public String getLongName(DERObjectIdentifier oid) {
+        return longNames.get(oid);
+    }
+
+    public Integer obj2nid(DERObjectIdentifier oid) {
+        return oidToNid.get(oid);
+    }
+
+    public DERObjectIdentifier nid2obj(Integer nid) {
+        return nidToOid.get(nid);
+    }
+
+    public String nid2sn(Integer nid) {
+        return nidToSn.get(nid);
+    }
+
+    public String nid2ln(Integer nid) {
+        return nidToLn.get(nid);
+    }
+
+    /**
+     * A copy of this registry that also knows oid by the given names.
+     */
+    public OIDRegistry register(DERObjectIdentifier oid, String sn, String ln) {
+        Builder b = new Builder(this);
+        b.nameToOid.put(sn.toLowerCase(), oid);
+        b.nameToOid.put(ln.toLowerCase(), oid);
+        b.oidToSym.put(oid, sn);
+        return b.build();
+    }
+
+    public static class Builder {
+        private final Map<String, DERObjectIdentifier> nameToOid;
+        private final Map<DERObjectIdentifier, String> oidToSym;
+        private final Map<DERObjectIdentifier, Integer> oidToNid;
+        private final Map<Integer, DERObjectIdentifier> nidToOid;
+        private final Map<Integer, String> nidToSn;
+        private final Map<Integer, String> nidToLn;
+
+        public Builder(Map<String, DERObjectIdentifier> names, Map<DERObjectIdentifier, String> symbols) {
+            nameToOid = new HashMap<String, DERObjectIdentifier>(names);
+            oidToSym = new HashMap<DERObjectIdentifier, String>(symbols);
+            oidToNid = new HashMap<DERObjectIdentifier, Integer>();
+            nidToOid = new HashMap<Integer, DERObjectIdentifier>();
+            nidToSn = new HashMap<Integer, String>();
+            nidToLn = new HashMap<Integer, String>();
+        }
+
+        private Builder(OIDRegistry r) {
+            nameToOid = new HashMap<String, DERObjectIdentifier>(r.nameToOid);
+            oidToSym = new HashMap<DERObjectIdentifier, String>(r.oidToSym);
+            oidToNid = new HashMap<DERObjectIdentifier, Integer>(r.oidToNid);
+            nidToOid = new HashMap<Integer, DERObjectIdentifier>(r.nidToOid);
+            nidToSn = new HashMap<Integer, String>(r.nidToSn);
+            nidToLn = new HashMap<Integer, String>(r.nidToLn);
+        }
+
+        public void add(int nid, String sn, String ln, String oid) {
+            if(null != oid && (null != sn || null != ln)) {
+                DERObjectIdentifier ident = new DERObjectIdentifier(oid);
+                if(sn != null) {
+                    nameToOid.put(sn.toLowerCase(),ident);
+                }
+                if(ln != null) {
+                    nameToOid.put(ln.toLowerCase(),ident);
+                }
+                oidToSym.put(ident,sn == null ? ln : sn);
+                oidToNid.put(ident,nid);
+                nidToOid.put(nid,ident);
+                nidToSn.put(nid,sn);
+                nidToLn.put(nid,ln);
+            }
+        }
+
+        public OIDRegistry build() {
+            return new OIDRegistry(this);
+        }
+    }
+}
@@ -50,7 +50,6 @@ import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
-import org.jruby.RubyFile;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
@@ -75,6 +74,8 @@ import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
+import org.jruby.util.IOOutputStream;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
@@ -113,18 +114,21 @@ public class PKCS7 extends RubyObject {
     }
 
     public static BIO obj2bio(IRubyObject obj) {
-        if(obj instanceof RubyFile) {
-            throw new IllegalArgumentException("TODO: handle RubyFile correctly");
-//     if (TYPE(obj) == T_FILE) {
-//         OpenFile *fptr;
-//         GetOpenFile(obj, fptr);
-//         rb_io_check_readable(fptr);
-//         bio = BIO_new_fp(fptr->f, BIO_NOCLOSE);
-        } else {
-            RubyString str = obj.convertToString();
-            ByteList bl = str.getByteList();
-            return BIO.memBuf(bl.bytes, bl.begin, bl.realSize);
+        if(isIO(obj)) {
+            return BIO.fromInputStream(new IOInputStream(obj));
         }
+        RubyString str = obj.convertToString();
+        ByteList bl = str.getByteList();
+        return BIO.memBuf(bl.bytes, bl.begin, bl.realSize);
+    }
+
+    /**
+     * Files, sockets, StringIO and the like: anything that is read from
+     * rather than converted to a String. Content from these is streamed
+     * through in chunks and not kept as the PKCS7's data.
+     */
+    private static boolean isIO(IRubyObject obj) {
+        return !(obj instanceof RubyString) && obj.respondsTo("read");
     }
 
     public static PKCS7 wrap(RubyClass klass, org.jruby.ext.openssl.impl.PKCS7 p7) {
@@ -134,7 +138,7 @@ public class PKCS7 extends RubyObject {
     }
 
     public static IRubyObject membio2str(Ruby runtime, BIO bio) {
-        return runtime.newString(new ByteList(((MemBIO)bio).getMemCopy(), false));
+        return runtime.newString(((MemBIO)bio).toByteList());
     }
 
     private static List<X509AuxCertificate> x509_ary2sk(IRubyObject ary) {
@@ -147,11 +151,24 @@ public class PKCS7 extends RubyObject {
     }
 
     public static class ModuleMethods {
-        @JRubyMethod(meta=true)
-        public static IRubyObject read_smime(IRubyObject klass, IRubyObject arg) throws IOException {
+        /**
+         * read_smime(str_or_io, content_io = nil): a multipart/signed message
+         * read from an io is streamed, its signed content is only digested
+         * (and written to content_io when given) and data is nil; verify
+         * then checks the signatures against those digests.
+         */
+        @JRubyMethod(meta=true, required=1, optional=1)
+        public static IRubyObject read_smime(IRubyObject klass, IRubyObject[] args) throws IOException {
+            IRubyObject arg = args[0];
             BIO in = obj2bio(arg);
             BIO[] out = new BIO[]{null};
-            org.jruby.ext.openssl.impl.PKCS7 pkcs7 = new SMIME(Mime.DEFAULT).readPKCS7(in, out);
+            org.jruby.ext.openssl.impl.PKCS7 pkcs7;
+            if(isIO(arg)) {
+                BIO content = args.length > 1 && !args[1].isNil() ? BIO.toOutputStream(new IOOutputStream(args[1])) : null;
+                pkcs7 = new SMIME(Mime.DEFAULT).readPKCS7Streaming(in, content);
+            } else {
+                pkcs7 = new SMIME(Mime.DEFAULT).readPKCS7(in, out);
+            }
             if(pkcs7 == null) {
                 throw new RaiseException(klass.getRuntime(), ((RubyModule)(((RubyModule)klass.getRuntime().getModule("OpenSSL")).getConstant("PKCS7"))).getClass("PKCS7Error"), null, false);
             }
@@ -199,7 +216,7 @@ public class PKCS7 extends RubyObject {
 
             org.jruby.ext.openssl.impl.PKCS7 p7 = org.jruby.ext.openssl.impl.PKCS7.sign(x509, pkey, x509s, in, flg);
             PKCS7 ret = wrap(((RubyModule)(((RubyModule)recv.getRuntime().getModule("OpenSSL")).getConstant("PKCS7"))).getClass("PKCS7"), p7);
-            ret.setData(data);
+            ret.setData(isIO(data) ? runtime.getNil() : data);
 
             return ret;
         }
@@ -227,11 +244,11 @@ public class PKCS7 extends RubyObject {
             }
 
             int flg = flags.isNil() ? 0 : RubyNumeric.fix2int(flags);
-            byte[] in = data.convertToString().getBytes();
+            BIO in = obj2bio(data);
             List<X509AuxCertificate> x509s = x509_ary2sk(certs);
             org.jruby.ext.openssl.impl.PKCS7 p7 = org.jruby.ext.openssl.impl.PKCS7.encrypt(x509s, in, ciph, flg);
             PKCS7 ret = wrap(((RubyModule)(((RubyModule)recv.getRuntime().getModule("OpenSSL")).getConstant("PKCS7"))).getClass("PKCS7"), p7);
-            ret.setData(data);
+            ret.setData(isIO(data) ? recv.getRuntime().getNil() : data);
 
             return ret;
         }
@@ -260,6 +277,14 @@ public class PKCS7 extends RubyObject {
         arg = args[0];
 
         arg = OpenSSLImpl.to_der_if_possible(arg);
+        if(isIO(arg)) {
+            // a stream cannot be rewound for the DER attempt once the
+            // PEM one has consumed it, so take it in whole
+            arg = arg.callMethod(getRuntime().getCurrentContext(), "read");
+            if(arg.isNil()) {
+                arg = getRuntime().newString();
+            }
+        }
         BIO input = obj2bio(arg);
         p7 = org.jruby.ext.openssl.impl.PKCS7.readPEM(input);
         if(p7 == null) {
@@ -479,7 +504,11 @@ public class PKCS7 extends RubyObject {
             : x509_ary2sk(certs); 
 
         Store x509st = ((X509Store)store).getStore();
-        BIO out = BIO.mem();
+        // content read from an IO is only digested, not collected, and
+        // content read_smime streamed past is not there to collect at all
+        boolean collect = (!isIO(indata) || (flg & org.jruby.ext.openssl.impl.PKCS7.TEXT) != 0) &&
+            !(in == null && p7.getContentDigests() != null);
+        BIO out = collect ? BIO.mem() : null;
 
         boolean result = false;
         try {
@@ -494,16 +523,25 @@ public class PKCS7 extends RubyObject {
             result = false;
         }
 
-        IRubyObject data = membio2str(getRuntime(), out);
+        IRubyObject data = out == null ? getRuntime().getNil() : membio2str(getRuntime(), out);
         setData(data);
 
         return result ? getRuntime().getTrue() : getRuntime().getFalse();
     }
 
+    /**
+     * decrypt(pkey, cert, flags = 0, io = nil): with an io the content is
+     * written to it in chunks and the io is returned, rather than the
+     * content as a String.
+     */
     @JRubyMethod(rest=true)
     public IRubyObject decrypt(IRubyObject[] args) {
         IRubyObject flags = getRuntime().getNil();
-        if(Arity.checkArgumentCount(getRuntime(), args, 2, 3) == 3) {
+        IRubyObject io = getRuntime().getNil();
+        switch(Arity.checkArgumentCount(getRuntime(), args, 2, 4)) {
+        case 4:
+            io = args[3];
+        case 3:
             flags = args[2];
         }
         IRubyObject pkey = args[0];
@@ -512,6 +550,17 @@ public class PKCS7 extends RubyObject {
         X509AuxCertificate x509 = ((X509Cert)cert).getAuxCert();
         int flg = flags.isNil() ? 0 : RubyNumeric.fix2int(flags);
 
+        if(!io.isNil()) {
+            BIO out = BIO.toOutputStream(new IOOutputStream(io));
+            p7.decrypt(key, x509, out, flg);
+            try {
+                out.flush();
+            } catch(IOException e) {
+                throw getRuntime().newIOErrorFromException(e);
+            }
+            return io;
+        }
+
         BIO out = BIO.mem();
         p7.decrypt(key, x509, out, flg);
 
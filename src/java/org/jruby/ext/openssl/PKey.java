@@ -28,11 +28,17 @@
 package org.jruby.ext.openssl;
 
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
@@ -43,7 +49,9 @@ import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
 
 /**
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
@@ -91,16 +99,108 @@ public abstract class PKey extends RubyObject {
     // FIXME: any compelling reason for abstract method here?
     public abstract IRubyObject to_der() throws Exception;
 
+    // data read per call when signing or verifying the contents of an IO
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
+    // idle Signature engines to keep per algorithm and key
+    private static final int MAX_IDLE_SIGNATURES = 2 * WorkerPool.parallelism();
+
+    /**
+     * Initialized Signature engines for one algorithm and key. Engines go
+     * back here after a successful sign or verify, which leaves them ready
+     * for the next one with the same key.
+     */
+    private static class SignaturePool {
+        final Key key;
+        final Queue<Signature> idle = new ConcurrentLinkedQueue<Signature>();
+        final AtomicInteger size = new AtomicInteger();
+
+        SignaturePool(Key key) {
+            this.key = key;
+        }
+    }
+
+    private transient final ConcurrentMap<String, SignaturePool> signatures = new ConcurrentHashMap<String, SignaturePool>();
+
+    Signature borrowSignature(String algorithm, boolean signing) throws NoSuchAlgorithmException, InvalidKeyException {
+        Key key = signing ? getPrivateKey() : getPublicKey();
+        SignaturePool pool = signatures.get(poolName(algorithm, signing));
+        if (pool != null && pool.key == key) {
+            Signature sig = pool.idle.poll();
+            if (sig != null) {
+                pool.size.decrementAndGet();
+                return sig;
+            }
+        }
+        // note: not specifying "BC" provider when BC is missing, as would be
+        // the case for, say, Net::SSH
+        Signature sig = OpenSSLReal.PROVIDER == null ?
+            Signature.getInstance(algorithm) :
+            Signature.getInstance(algorithm, OpenSSLReal.PROVIDER);
+        if (signing) {
+            sig.initSign((PrivateKey)key);
+        } else {
+            sig.initVerify((PublicKey)key);
+        }
+        return sig;
+    }
+
+    void returnSignature(String algorithm, boolean signing, Signature sig) {
+        Key key = signing ? getPrivateKey() : getPublicKey();
+        String name = poolName(algorithm, signing);
+        SignaturePool pool = signatures.get(name);
+        if (pool == null || pool.key != key) {
+            // first use, or the key was replaced since
+            pool = new SignaturePool(key);
+            signatures.put(name, pool);
+        }
+        if (pool.size.incrementAndGet() <= MAX_IDLE_SIGNATURES) {
+            pool.idle.offer(sig);
+        } else {
+            pool.size.decrementAndGet();
+        }
+    }
+
+    private static String poolName(String algorithm, boolean signing) {
+        return signing ? "sign:" + algorithm : "verify:" + algorithm;
+    }
+
+    /**
+     * Feeds data to the engine, either a String (without copying it) or
+     * anything responding to read, which is consumed in chunks.
+     */
+    private void update(Signature sig, IRubyObject data) throws SignatureException {
+        if (data instanceof RubyString) {
+            ByteList bl = ((RubyString)data).getByteList();
+            sig.update(bl.bytes, bl.begin, bl.realSize);
+            return;
+        }
+        ThreadContext ctx = getRuntime().getCurrentContext();
+        IRubyObject size = getRuntime().newFixnum(STREAM_CHUNK_SIZE);
+        IRubyObject chunk;
+        while (!(chunk = data.callMethod(ctx, "read", size)).isNil()) {
+            ByteList bl = chunk.convertToString().getByteList();
+            sig.update(bl.bytes, bl.begin, bl.realSize);
+        }
+    }
+
+    private static boolean isData(IRubyObject data) {
+        return data instanceof RubyString || data.respondsTo("read");
+    }
+
     @JRubyMethod
     public IRubyObject sign(IRubyObject digest, IRubyObject data) throws Exception {
         if(!this.callMethod(getRuntime().getCurrentContext(),"private?").isTrue()) {
             throw getRuntime().newArgumentError("Private key is needed.");
         }
-        Signature sig = Signature.getInstance(((Digest)digest).getAlgorithm() + "WITH" + getAlgorithm(),OpenSSLReal.PROVIDER);
-        sig.initSign(getPrivateKey());
-        byte[] inp = data.convertToString().getBytes();
-        sig.update(inp);
+        if (!isData(data)) {
+            data = data.convertToString();
+        }
+        String algorithm = ((Digest)digest).getAlgorithm() + "WITH" + getAlgorithm();
+        Signature sig = borrowSignature(algorithm, true);
+        update(sig, data);
         byte[] sigge = sig.sign();
+        returnSignature(algorithm, true, sig);
         return RubyString.newString(getRuntime(), sigge);
         /*
     GetPKey(self, pkey);
@@ -126,22 +226,17 @@ public abstract class PKey extends RubyObject {
         if (!(sig instanceof RubyString)) {
             throw newPKeyError(getRuntime(), "invalid signature");
         }
-        if (!(data instanceof RubyString)) {
+        if (!isData(data)) {
             throw newPKeyError(getRuntime(), "invalid data");
         }
         byte[] sigBytes = ((RubyString)sig).getBytes();
-        byte[] dataBytes = ((RubyString)data).getBytes();
         String algorithm = ((Digest)digest).getRealName() + "with" + getAlgorithm();
         boolean valid;
         try {
-            // note: not specifying "BC" provider here, as that would fail if
-            // BC wasn't plugged in (as it would not be for, say, Net::SSH)
-            Signature signature = OpenSSLReal.PROVIDER == null ? 
-                Signature.getInstance(algorithm) :
-                Signature.getInstance(algorithm, OpenSSLReal.PROVIDER);
-            signature.initVerify(getPublicKey());
-            signature.update(dataBytes);
+            Signature signature = borrowSignature(algorithm, false);
+            update(signature, data);
             valid = signature.verify(sigBytes);
+            returnSignature(algorithm, false, signature);
         } catch (NoSuchAlgorithmException e) {
             throw newPKeyError(getRuntime(), "unsupported algorithm: " + algorithm);
         } catch (SignatureException e) {
@@ -96,15 +96,8 @@ public class PKeyDH extends PKey {
         return new RaiseException(runtime, ((RubyModule)runtime.getModule("OpenSSL").getConstantAt("PKey")).getClass("DHError"), message, true);
     }
     
-    private static SecureRandom _secureRandom;
-    
     private static SecureRandom getSecureRandom() {
-        SecureRandom rand;
-        if ((rand = _secureRandom) != null) {
-            return rand;
-        }
-        // FIXME: do we want a particular algorithm / provider? BC?
-        return _secureRandom = new SecureRandom();
+        return RandomService.getSecureRandom();
     }
 
     // transient because: we do not want these value serialized (insecure)
@@ -149,7 +142,8 @@ public class PKeyDH extends PKey {
                 int gval = argc == 2 ? RubyNumeric.fix2int(args[1]) : 2;
                 BigInteger p;
                 try {
-                    p = generateP(bits, gval);
+                    // only the first DH.new for given bits and g searches for a prime
+                    p = DHParameterCache.getP(bits, gval);
                 } catch(IllegalArgumentException e) {
                     throw runtime.newArgumentError(e.getMessage());
                 }
@@ -165,6 +159,48 @@ public class PKeyDH extends PKey {
         return this;
     }
     
+    @JRubyMethod(name="group", meta=true)
+    public static IRubyObject dh_group(IRubyObject recv, IRubyObject name) {
+        Ruby runtime = recv.getRuntime();
+        DHParameterSpec spec = DHGroups.get(name.toString());
+        if (spec == null) {
+            throw newDHError(runtime, "unknown group: " + name + " (known: " + DHGroups.getNames() + ")");
+        }
+        PKeyDH dh = new PKeyDH(runtime, (RubyClass)recv);
+        dh.dh_p = spec.getP();
+        dh.dh_g = spec.getG();
+        return dh;
+    }
+
+    @JRubyMethod(name="precompute", meta=true, required=1, optional=1)
+    public static IRubyObject dh_precompute(IRubyObject recv, IRubyObject[] args) {
+        Ruby runtime = recv.getRuntime();
+        int bits = RubyNumeric.fix2int(args[0]);
+        int gval = args.length == 2 ? RubyNumeric.fix2int(args[1]) : 2;
+        try {
+            DHParameterCache.precompute(bits, gval);
+        } catch(IllegalArgumentException e) {
+            throw runtime.newArgumentError(e.getMessage());
+        }
+        return runtime.getNil();
+    }
+
+    @JRubyMethod(name="parameter_cache_file", meta=true)
+    public static IRubyObject dh_get_parameter_cache_file(IRubyObject recv) {
+        String file = DHParameterCache.getFile();
+        return file == null ? recv.getRuntime().getNil() : recv.getRuntime().newString(file);
+    }
+
+    @JRubyMethod(name="parameter_cache_file=", meta=true)
+    public static IRubyObject dh_set_parameter_cache_file(IRubyObject recv, IRubyObject path) {
+        try {
+            DHParameterCache.setFile(path.isNil() ? null : path.convertToString().toString());
+        } catch (IOException e) {
+            throw recv.getRuntime().newIOErrorFromException(e);
+        }
+        return path;
+    }
+
     public static BigInteger generateP(int bits, int g) {
         
         // FIXME? I'm following algorithms used in OpenSSL, could use JCE provider instead.
@@ -40,12 +40,14 @@ import java.security.interfaces.DSAKey;
 import java.security.interfaces.DSAParams;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.DSAPublicKey;
+import java.security.spec.DSAPrivateKeySpec;
 import java.security.spec.DSAPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERInteger;
 import org.bouncycastle.asn1.DERSequence;
 import org.jruby.Ruby;
@@ -105,6 +107,16 @@ public class PKeyDSA extends PKey {
     private static final int SPEC_G = 3;
     
 
+    /**
+     * Wraps an already decoded public key, e.g. the one of a certificate.
+     */
+    static PKeyDSA newPublicKey(Ruby runtime, DSAPublicKey key) {
+        RubyClass klass = (RubyClass)((RubyModule)runtime.getModule("OpenSSL").getConstant("PKey")).getConstant("DSA");
+        PKeyDSA pkey = new PKeyDSA(runtime, klass);
+        pkey.pubKey = key;
+        return pkey;
+    }
+
     PublicKey getPublicKey() {
         return pubKey;
     }
@@ -142,6 +154,13 @@ public class PKeyDSA extends PKey {
                 } catch(NoSuchAlgorithmException e) {
                     throw getRuntime().newLoadError("unsupported key algorithm (DSA)");
                 }
+                // go straight to the right decoder when the format is evident,
+                // only falling back to trying them all when it isn't
+                try {
+                    val = readKey(KeyFormat.detect(ByteList.plain(input)), input, passwd, fact);
+                } catch(Exception e) {
+                    val = null;
+                }
                 if(null == val) {
                     try {
                         val = PEMInputOutput.readDSAPrivateKey(new StringReader(input),passwd);
@@ -198,6 +217,35 @@ public class PKeyDSA extends PKey {
         return this;
     }
 
+    private static Object readKey(KeyFormat format, String input, char[] passwd, KeyFactory fact) throws Exception {
+        ASN1Sequence seq;
+        switch(format.getFormat()) {
+        case KeyFormat.PEM_PRIVATE:
+            return PEMInputOutput.readDSAPrivateKey(new StringReader(input),passwd);
+        case KeyFormat.PEM_PUBLIC:
+            return PEMInputOutput.readDSAPublicKey(new StringReader(input),passwd);
+        case KeyFormat.DER_PRIVATE:
+            // version, p, q, g, y, x -- the layout to_der writes
+            seq = format.getSequence();
+            if(seq.size() != 6) {
+                return null;
+            }
+            BigInteger p = ((DERInteger)seq.getObjectAt(1)).getValue();
+            BigInteger q = ((DERInteger)seq.getObjectAt(2)).getValue();
+            BigInteger g = ((DERInteger)seq.getObjectAt(3)).getValue();
+            BigInteger y = ((DERInteger)seq.getObjectAt(4)).getValue();
+            BigInteger x = ((DERInteger)seq.getObjectAt(5)).getValue();
+            return new KeyPair(fact.generatePublic(new DSAPublicKeySpec(y, p, q, g)),
+                               fact.generatePrivate(new DSAPrivateKeySpec(x, p, q, g)));
+        case KeyFormat.DER_SPKI:
+            return fact.generatePublic(new X509EncodedKeySpec(ByteList.plain(input)));
+        case KeyFormat.DER_PKCS8:
+            return fact.generatePrivate(new PKCS8EncodedKeySpec(ByteList.plain(input)));
+        default:
+            return null;
+        }
+    }
+
     @JRubyMethod(name="public?")
     public IRubyObject public_p() {
         return pubKey != null ? getRuntime().getTrue() : getRuntime().getFalse();
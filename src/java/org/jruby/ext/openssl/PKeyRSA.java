@@ -30,11 +30,15 @@ package org.jruby.ext.openssl;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
@@ -43,13 +47,17 @@ import java.security.spec.RSAKeyGenParameterSpec;
 import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.crypto.Cipher;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERInteger;
 import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
 import org.jruby.RubyBignum;
@@ -101,6 +109,9 @@ public class PKeyRSA extends PKey {
 
     private transient volatile RSAPrivateCrtKey privKey;
     private transient volatile RSAPublicKey pubKey;
+
+    // CRT and blinding state for privKey, rebuilt whenever privKey changes
+    private transient volatile RSAPrivateEngine privEngine;
     
     // fields to hold individual RSAPublicKeySpec components. this allows
     // a public key to be constructed incrementally, as required by the
@@ -116,6 +127,16 @@ public class PKeyRSA extends PKey {
     private transient volatile BigInteger rsa_dmq1;
     private transient volatile BigInteger rsa_iqmp;
     
+    /**
+     * Wraps an already decoded public key, e.g. the one of a certificate.
+     */
+    static PKeyRSA newPublicKey(Ruby runtime, RSAPublicKey key) {
+        RubyClass klass = (RubyClass)((RubyModule)runtime.getModule("OpenSSL").getConstant("PKey")).getConstant("RSA");
+        PKeyRSA pkey = new PKeyRSA(runtime, klass);
+        pkey.pubKey = key;
+        return pkey;
+    }
+
     PublicKey getPublicKey() {
         return pubKey;
     }
@@ -139,11 +160,8 @@ public class PKeyRSA extends PKey {
             }
         }       
         int keysize = RubyNumeric.fix2int(args[0]);
-        RSAKeyGenParameterSpec spec = new RSAKeyGenParameterSpec(keysize, exp);
         try {
-            KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA",OpenSSLReal.PROVIDER);
-            gen.initialize(spec);
-            KeyPair pair = gen.generateKeyPair();
+            KeyPair pair = RSAKeyPairPool.generate(keysize, exp);
             PKeyRSA rsa = new PKeyRSA(recv.getRuntime(), (RubyClass)recv);
             rsa.privKey = (RSAPrivateCrtKey)(pair.getPrivate());
             rsa.pubKey = (RSAPublicKey)(pair.getPublic());
@@ -153,6 +171,55 @@ public class PKeyRSA extends PKey {
         }
     }
 
+    private static BigInteger getExponent(IRubyObject[] args, int index) {
+        if(args.length <= index) {
+            return RSAKeyGenParameterSpec.F4;
+        }
+        if(args[index] instanceof RubyFixnum) {
+            return BigInteger.valueOf(RubyNumeric.num2long(args[index]));
+        }
+        return ((RubyBignum)args[index]).getValue();
+    }
+
+    @JRubyMethod(name="enable_pool", meta=true, required=2, optional=1)
+    public static IRubyObject enable_pool(IRubyObject recv, IRubyObject[] args) {
+        int keysize = RubyNumeric.fix2int(args[0]);
+        int size = RubyNumeric.fix2int(args[1]);
+        try {
+            RSAKeyPairPool.enable(keysize, getExponent(args, 2), size);
+        } catch(IllegalArgumentException e) {
+            throw recv.getRuntime().newArgumentError(e.getMessage());
+        }
+        return recv.getRuntime().getNil();
+    }
+
+    @JRubyMethod(name="disable_pool", meta=true, required=1, optional=1)
+    public static IRubyObject disable_pool(IRubyObject recv, IRubyObject[] args) {
+        RSAKeyPairPool.disable(RubyNumeric.fix2int(args[0]), getExponent(args, 1));
+        return recv.getRuntime().getNil();
+    }
+
+    @JRubyMethod(name="pool_stats", meta=true)
+    public static IRubyObject pool_stats(IRubyObject recv) {
+        Ruby runtime = recv.getRuntime();
+        ThreadContext ctx = runtime.getCurrentContext();
+        RubyHash stats = RubyHash.newHash(runtime);
+        for(RSAKeyPairPool pool : RSAKeyPairPool.getPools()) {
+            RubyHash hash = RubyHash.newHash(runtime);
+            hash.op_aset(ctx, runtime.newString("bits"), runtime.newFixnum(pool.getBits()));
+            hash.op_aset(ctx, runtime.newString("exponent"), BN.newBN(runtime, pool.getExponent()));
+            hash.op_aset(ctx, runtime.newString("capacity"), runtime.newFixnum(pool.getCapacity()));
+            hash.op_aset(ctx, runtime.newString("depth"), runtime.newFixnum(pool.getDepth()));
+            hash.op_aset(ctx, runtime.newString("pending"), runtime.newFixnum(pool.getPending()));
+            hash.op_aset(ctx, runtime.newString("hits"), runtime.newFixnum(pool.getHits()));
+            hash.op_aset(ctx, runtime.newString("misses"), runtime.newFixnum(pool.getMisses()));
+            hash.op_aset(ctx, runtime.newString("wait_time"), runtime.newFloat(pool.getWaitNanos() / 1e9));
+            hash.op_aset(ctx, runtime.newString("max_wait_time"), runtime.newFloat(pool.getMaxWaitNanos() / 1e9));
+            stats.op_aset(ctx, runtime.newString(pool.getBits() + ":" + pool.getExponent()), hash);
+        }
+        return stats;
+    }
+
     @JRubyMethod(frame=true, rest=true)
     public IRubyObject initialize(IRubyObject[] args, Block block) {
         IRubyObject arg;
@@ -171,9 +238,7 @@ public class PKeyRSA extends PKey {
                     pubExp = BigInteger.valueOf(RubyNumeric.num2long(pass));
                 }
                 try {
-                    KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA",OpenSSLReal.PROVIDER);
-                    gen.initialize(new RSAKeyGenParameterSpec(keyLen,pubExp));
-                    KeyPair pair = gen.generateKeyPair();
+                    KeyPair pair = RSAKeyPairPool.generate(keyLen, pubExp);
                     privKey = (RSAPrivateCrtKey)(pair.getPrivate());
                     pubKey = (RSAPublicKey)(pair.getPublic());
                 } catch(Exception e) {
@@ -193,6 +258,13 @@ public class PKeyRSA extends PKey {
                     throw getRuntime().newLoadError("unsupported key algorithm (RSA)");
                 }
 
+                // go straight to the right decoder when the format is evident,
+                // only falling back to trying them all when it isn't
+                try {
+                    val = readKey(KeyFormat.detect(ByteList.plain(input)), input, passwd, fact);
+                } catch(Exception e) {
+                    val = null;
+                }
                 if(null == val) {
                     try {
                         val = PEMInputOutput.readRSAPrivateKey(new StringReader(input),passwd);
@@ -288,6 +360,45 @@ public class PKeyRSA extends PKey {
         return this;
     }
 
+    private static Object readKey(KeyFormat format, String input, char[] passwd, KeyFactory fact) throws Exception {
+        ASN1Sequence seq;
+        switch(format.getFormat()) {
+        case KeyFormat.PEM_PRIVATE:
+            return PEMInputOutput.readRSAPrivateKey(new StringReader(input),passwd);
+        case KeyFormat.PEM_PUBLIC:
+            Object val = PEMInputOutput.readRSAPublicKey(new StringReader(input),passwd);
+            if(null == val) {
+                val = PEMInputOutput.readRSAPubKey(new StringReader(input),passwd);
+            }
+            return val;
+        case KeyFormat.DER_PRIVATE:
+            seq = format.getSequence();
+            if(seq.size() != 9) {
+                return null;
+            }
+            return fact.generatePrivate(new RSAPrivateCrtKeySpec(
+                    ((DERInteger)seq.getObjectAt(1)).getValue(),
+                    ((DERInteger)seq.getObjectAt(2)).getValue(),
+                    ((DERInteger)seq.getObjectAt(3)).getValue(),
+                    ((DERInteger)seq.getObjectAt(4)).getValue(),
+                    ((DERInteger)seq.getObjectAt(5)).getValue(),
+                    ((DERInteger)seq.getObjectAt(6)).getValue(),
+                    ((DERInteger)seq.getObjectAt(7)).getValue(),
+                    ((DERInteger)seq.getObjectAt(8)).getValue()));
+        case KeyFormat.DER_PUBLIC:
+            seq = format.getSequence();
+            return fact.generatePublic(new RSAPublicKeySpec(
+                    ((DERInteger)seq.getObjectAt(0)).getValue(),
+                    ((DERInteger)seq.getObjectAt(1)).getValue()));
+        case KeyFormat.DER_SPKI:
+            return fact.generatePublic(new X509EncodedKeySpec(ByteList.plain(input)));
+        case KeyFormat.DER_PKCS8:
+            return fact.generatePrivate(new PKCS8EncodedKeySpec(ByteList.plain(input)));
+        default:
+            return null;
+        }
+    }
+
     @JRubyMethod(name="public?")
     public IRubyObject public_p() {
         return pubKey != null ? getRuntime().getTrue() : getRuntime().getFalse();
@@ -445,17 +556,19 @@ public class PKeyRSA extends PKey {
         if(org.jruby.runtime.Arity.checkArgumentCount(getRuntime(),args,1,2) == 2 && !args[1].isNil()) {
             padding = RubyNumeric.fix2int(args[1]);
         }
-        String p = getPadding(padding);
+        getPadding(padding);
 
         RubyString buffer = args[0].convertToString();
         if(privKey == null) {
             throw newRSAError(getRuntime(), "private key needed.");
         }
 
-        Cipher engine = Cipher.getInstance("RSA"+p,OpenSSLReal.PROVIDER);
-        engine.init(Cipher.ENCRYPT_MODE,privKey);
-        byte[] outp = engine.doFinal(buffer.getBytes());
-        return RubyString.newString(getRuntime(), outp);
+        try {
+            byte[] outp = getPrivateEngine().process(true, padding, buffer.getBytes());
+            return RubyString.newString(getRuntime(), outp);
+        } catch(InvalidCipherTextException e) {
+            throw newRSAError(getRuntime(), e.getMessage());
+        }
     }
 
     @JRubyMethod(rest=true)
@@ -464,17 +577,19 @@ public class PKeyRSA extends PKey {
         if(org.jruby.runtime.Arity.checkArgumentCount(getRuntime(),args,1,2) == 2 && !args[1].isNil()) {
             padding = RubyNumeric.fix2int(args[1]);
         }
-        String p = getPadding(padding);
+        getPadding(padding);
 
         RubyString buffer = args[0].convertToString();
         if(privKey == null) {
             throw newRSAError(getRuntime(), "private key needed.");
         }
 
-        Cipher engine = Cipher.getInstance("RSA"+p,OpenSSLReal.PROVIDER);
-        engine.init(Cipher.DECRYPT_MODE,privKey);
-        byte[] outp = engine.doFinal(buffer.getBytes());
-        return RubyString.newString(getRuntime(), outp);
+        try {
+            byte[] outp = getPrivateEngine().process(false, padding, buffer.getBytes());
+            return RubyString.newString(getRuntime(), outp);
+        } catch(InvalidCipherTextException e) {
+            throw newRSAError(getRuntime(), e.getMessage());
+        }
     }
 
     @JRubyMethod(rest=true)
@@ -507,6 +622,140 @@ public class PKeyRSA extends PKey {
         return RubyString.newString(getRuntime(), outp);
     }
 
+    // below this many items per processor a batch is done on the calling thread
+    private static final int BATCH_SLICE_SIZE = 16;
+
+    @JRubyMethod(rest=true)
+    public IRubyObject private_encrypt_all(IRubyObject[] args) throws Exception {
+        if(privKey == null) {
+            throw newRSAError(getRuntime(), "private key needed.");
+        }
+        return cipherAll(args, Cipher.ENCRYPT_MODE, privKey);
+    }
+
+    @JRubyMethod(rest=true)
+    public IRubyObject private_decrypt_all(IRubyObject[] args) throws Exception {
+        if(privKey == null) {
+            throw newRSAError(getRuntime(), "private key needed.");
+        }
+        return cipherAll(args, Cipher.DECRYPT_MODE, privKey);
+    }
+
+    @JRubyMethod(rest=true)
+    public IRubyObject public_encrypt_all(IRubyObject[] args) throws Exception {
+        return cipherAll(args, Cipher.ENCRYPT_MODE, pubKey);
+    }
+
+    @JRubyMethod(rest=true)
+    public IRubyObject public_decrypt_all(IRubyObject[] args) throws Exception {
+        return cipherAll(args, Cipher.DECRYPT_MODE, pubKey);
+    }
+
+    /**
+     * Batch form of the four RSA operations: every slice of the batch gets
+     * one initialized Cipher (private keys share their RSAPrivateEngine),
+     * slices run in parallel for large batches, and results come back in
+     * input order.
+     */
+    private IRubyObject cipherAll(IRubyObject[] args, final int mode, final Key key) throws Exception {
+        int padding = 1;
+        if(Arity.checkArgumentCount(getRuntime(),args,1,2) == 2 && !args[1].isNil()) {
+            padding = RubyNumeric.fix2int(args[1]);
+        }
+        final String transformation = "RSA" + getPadding(padding);
+
+        List list = args[0].convertToArray().getList();
+        final byte[][] inputs = new byte[list.size()][];
+        for(int i = 0; i < inputs.length; i++) {
+            inputs[i] = ((IRubyObject)list.get(i)).convertToString().getBytes();
+        }
+        final byte[][] outputs = new byte[inputs.length][];
+        final RSAPrivateEngine priv = key != null && key == privKey ? getPrivateEngine() : null;
+        final int pad = padding;
+        try {
+            WorkerPool.forEachSlice(inputs.length, BATCH_SLICE_SIZE, new WorkerPool.Slice() {
+                public void run(int from, int to) throws Exception {
+                    if(priv != null) {
+                        for(int i = from; i < to; i++) {
+                            outputs[i] = priv.process(mode == Cipher.ENCRYPT_MODE, pad, inputs[i]);
+                        }
+                        return;
+                    }
+                    Cipher engine = Cipher.getInstance(transformation, OpenSSLReal.PROVIDER);
+                    engine.init(mode, key);
+                    for(int i = from; i < to; i++) {
+                        outputs[i] = engine.doFinal(inputs[i]);
+                    }
+                }
+            });
+        } catch(ExecutionException e) {
+            throw newRSAError(getRuntime(), e.getCause().getMessage());
+        }
+        IRubyObject[] result = new IRubyObject[outputs.length];
+        for(int i = 0; i < outputs.length; i++) {
+            result[i] = RubyString.newString(getRuntime(), outputs[i]);
+        }
+        return getRuntime().newArrayNoCopy(result);
+    }
+
+    /**
+     * Verifies a whole array of [signature, data] pairs against this key,
+     * in parallel for large batches, returning true or false for each.
+     */
+    @JRubyMethod
+    public IRubyObject verify_all(IRubyObject digest, IRubyObject pairs) throws Exception {
+        if (!(digest instanceof Digest)) {
+            throw newPKeyError(getRuntime(), "invalid digest");
+        }
+        final String algorithm = ((Digest)digest).getRealName() + "with" + getAlgorithm();
+        List list = pairs.convertToArray().getList();
+        final byte[][] sigs = new byte[list.size()][];
+        final byte[][] datas = new byte[list.size()][];
+        for(int i = 0; i < sigs.length; i++) {
+            List pair = ((IRubyObject)list.get(i)).convertToArray().getList();
+            sigs[i] = ((IRubyObject)pair.get(0)).convertToString().getBytes();
+            datas[i] = ((IRubyObject)pair.get(1)).convertToString().getBytes();
+        }
+        final boolean[] valid = new boolean[sigs.length];
+        try {
+            WorkerPool.forEachSlice(sigs.length, BATCH_SLICE_SIZE, new WorkerPool.Slice() {
+                public void run(int from, int to) throws Exception {
+                    Signature signature = borrowSignature(algorithm, false);
+                    for(int i = from; i < to; i++) {
+                        signature.update(datas[i]);
+                        try {
+                            valid[i] = signature.verify(sigs[i]);
+                        } catch(SignatureException e) {
+                            // malformed signature; verify resets the engine either way
+                            valid[i] = false;
+                        }
+                    }
+                    returnSignature(algorithm, false, signature);
+                }
+            });
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            if(cause instanceof NoSuchAlgorithmException) {
+                throw newPKeyError(getRuntime(), "unsupported algorithm: " + algorithm);
+            }
+            if(cause instanceof InvalidKeyException) {
+                throw newPKeyError(getRuntime(), "invalid key: " + cause.getMessage());
+            }
+            throw newPKeyError(getRuntime(), cause.getMessage());
+        }
+        IRubyObject[] result = new IRubyObject[valid.length];
+        for(int i = 0; i < valid.length; i++) {
+            result[i] = getRuntime().newBoolean(valid[i]);
+        }
+        return getRuntime().newArrayNoCopy(result);
+    }
+
     @JRubyMethod(name="d=")
     public synchronized IRubyObject set_d(IRubyObject value) {
         if (privKey != null) {
@@ -712,6 +961,15 @@ public class PKeyRSA extends PKey {
         return value;
     }
     
+    private RSAPrivateEngine getPrivateEngine() {
+        RSAPrivateCrtKey key = privKey;
+        RSAPrivateEngine engine = privEngine;
+        if (engine == null || !engine.isFor(key)) {
+            privEngine = engine = new RSAPrivateEngine(key);
+        }
+        return engine;
+    }
+
     private void generatePublicKeyIfParams() {
         if (pubKey != null) {
             throw newRSAError(getRuntime(), "illegal modification");
@@ -0,0 +1,292 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Prime (and safe prime) search behind BN.generate_prime and DH parameter
+ * generation.
+ *
+ * Each search picks a random starting point meeting the add/rem criteria and
+ * walks up from it, keeping the residues of the start modulo the small primes
+ * so that most candidates are thrown out by integer arithmetic alone (for a
+ * safe prime p = 2q + 1, q is divisible by a small odd prime s exactly when
+ * p mod s == 1). Only survivors of the sieve go through Miller-Rabin.
+ *
+ * Large searches run one independent walk per processor on the
+ * {@link WorkerPool}; the first walk to find a prime wins and the others
+ * are cancelled.
+ */
+public class PrimeGenerator {
+    private static final int SIEVE_LIMIT = 8192;
+    private static final int[] SMALL_PRIMES = smallPrimes(SIEVE_LIMIT);
+    private static final BigInteger[] SMALL_PRIMES_BI = new BigInteger[SMALL_PRIMES.length];
+    static {
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            SMALL_PRIMES_BI[i] = BigInteger.valueOf(SMALL_PRIMES[i]);
+        }
+    }
+
+    private static final BigInteger FOUR = BigInteger.valueOf(4);
+
+    // below this the candidates might collide with the sieve primes themselves
+    private static final int MIN_SIEVE_BITS = 64;
+    private static final int MIN_PARALLEL_BITS = 512;
+    private static final int MAX_STEP = 1 << 20;
+    private static final int WALK_LENGTH = 1 << 12;
+
+    private PrimeGenerator() {}
+
+    /**
+     * Searches for a prime across all processors when that pays off.
+     */
+    public static BigInteger generate(int bits, boolean safe, BigInteger add, BigInteger rem, int certainty) {
+        if (!canSieve(bits, add, rem)) {
+            return generateSimple(bits, safe, add, rem, certainty);
+        }
+        int workers = WorkerPool.parallelism();
+        if (bits < MIN_PARALLEL_BITS || workers < 2 || WorkerPool.isWorkerThread()) {
+            return generateSerial(bits, safe, add, rem, certainty);
+        }
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Callable<BigInteger>> searches = new ArrayList<Callable<BigInteger>>(workers);
+        for (int i = 0; i < workers; i++) {
+            searches.add(new Search(bits, safe, add, rem, certainty, done));
+        }
+        try {
+            return WorkerPool.getExecutor().invokeAny(searches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while generating prime");
+        } catch (ExecutionException e) {
+            // not expected, but the serial search does the same work
+        } catch (RejectedExecutionException e) {
+        } finally {
+            done.set(true);
+        }
+        return generateSerial(bits, safe, add, rem, certainty);
+    }
+
+    /**
+     * Sieving search on the calling thread only.
+     */
+    public static BigInteger generateSerial(int bits, boolean safe, BigInteger add, BigInteger rem, int certainty) {
+        if (!canSieve(bits, add, rem)) {
+            return generateSimple(bits, safe, add, rem, certainty);
+        }
+        return new Search(bits, safe, add, rem, certainty, new AtomicBoolean(false)).search();
+    }
+
+    private static boolean canSieve(int bits, BigInteger add, BigInteger rem) {
+        if (bits < MIN_SIEVE_BITS) {
+            return false;
+        }
+        if (add != null) {
+            return add.signum() > 0 && add.compareTo(BigInteger.valueOf(MAX_STEP)) <= 0 &&
+                rem.signum() >= 0 && rem.compareTo(add) < 0;
+        }
+        return true;
+    }
+
+    static BigInteger generateSimple(int bits, boolean safe, BigInteger add, BigInteger rem, int certainty) {
+        // borrowing technique from org.bouncycastle.crypto.generators.DHParametersHelper
+        // (unfortunately the code has package visibility), wherein for safe primes,
+        // we'll use the lowest useful certainty (2) for generation of q, then if
+        // p ( = 2q + 1) is prime to our required certainty (100), we'll verify that q
+        // is as well.
+        BigInteger p, q;
+        int qbits = bits - 1;
+        SecureRandom secureRandom = RandomService.getSecureRandom();
+        if (add != null) {
+            return generateStepping(bits, safe, add, rem, certainty, secureRandom);
+        }
+        if (safe) {
+            do {
+                q = new BigInteger(qbits, 2, secureRandom);
+                p = q.shiftLeft(1).setBit(0);
+            } while (!(p.isProbablePrime(certainty) && q.isProbablePrime(certainty)));
+        } else {
+            p = BigInteger.probablePrime(bits, secureRandom);
+        }
+        return p;
+    }
+
+    /**
+     * Walks p = rem (mod add) from a random start rather than drawing primes
+     * until one happens to match, which would take about add/2 draws.
+     */
+    private static BigInteger generateStepping(int bits, boolean safe, BigInteger add, BigInteger rem, int certainty, SecureRandom secureRandom) {
+        for (;;) {
+            BigInteger p = new BigInteger(bits, secureRandom).setBit(bits - 1);
+            p = p.subtract(p.mod(add)).add(rem);
+            while (p.bitLength() < bits) {
+                p = p.add(add);
+            }
+            for (; p.bitLength() == bits; p = p.add(add)) {
+                if (p.isProbablePrime(certainty) &&
+                    (!safe || p.shiftRight(1).isProbablePrime(certainty))) {
+                    return p;
+                }
+            }
+        }
+    }
+
+    private static class Search implements Callable<BigInteger> {
+        private final int bits;
+        private final boolean safe;
+        private final BigInteger add;
+        private final BigInteger rem;
+        private final int certainty;
+        private final AtomicBoolean done;
+        private final int step;
+
+        Search(int bits, boolean safe, BigInteger add, BigInteger rem, int certainty, AtomicBoolean done) {
+            this.bits = bits;
+            this.safe = safe;
+            this.add = add;
+            this.rem = rem;
+            this.certainty = certainty;
+            this.done = done;
+            if (add != null) {
+                this.step = add.intValue();
+            } else {
+                // keep p = 3 mod 4 for safe primes so that q stays odd
+                this.step = safe ? 4 : 2;
+            }
+        }
+
+        public BigInteger call() {
+            BigInteger p = search();
+            if (p == null) {
+                throw new CancellationException();
+            }
+            return p;
+        }
+
+        BigInteger search() {
+            SecureRandom random = RandomService.getSecureRandom();
+            int[] residues = new int[SMALL_PRIMES.length];
+            while (!stopped()) {
+                BigInteger start = align(new BigInteger(bits, random).setBit(bits - 1));
+                if (start.bitLength() != bits) {
+                    continue;
+                }
+                for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                    residues[i] = start.mod(SMALL_PRIMES_BI[i]).intValue();
+                }
+                int mod4 = start.mod(FOUR).intValue();
+                for (int k = 0; k < WALK_LENGTH; k++) {
+                    if ((k & 0x3f) == 0 && stopped()) {
+                        return null;
+                    }
+                    long delta = (long) k * step;
+                    if (!passesSieve(residues, mod4, delta)) {
+                        continue;
+                    }
+                    BigInteger p = start.add(BigInteger.valueOf(delta));
+                    if (p.bitLength() != bits) {
+                        break;
+                    }
+                    if (isPrime(p)) {
+                        done.set(true);
+                        return p;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean stopped() {
+            return done.get() || Thread.currentThread().isInterrupted();
+        }
+
+        private BigInteger align(BigInteger start) {
+            if (add != null) {
+                return start.subtract(start.mod(add)).add(rem);
+            }
+            if (safe) {
+                return start.subtract(start.mod(FOUR)).add(BigInteger.valueOf(3));
+            }
+            return start.setBit(0);
+        }
+
+        private boolean passesSieve(int[] residues, int mod4, long delta) {
+            int m4 = (int) ((mod4 + delta) & 3);
+            if (safe ? m4 != 3 : (m4 & 1) == 0) {
+                return false;
+            }
+            // index 0 is 2, already covered above
+            for (int i = 1; i < residues.length; i++) {
+                int r = (int) ((residues[i] + delta) % SMALL_PRIMES[i]);
+                if (r == 0 || (safe && r == 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isPrime(BigInteger p) {
+            if (!safe) {
+                return p.isProbablePrime(certainty);
+            }
+            // cheap test on q first, most candidates fail here
+            BigInteger q = p.shiftRight(1);
+            return q.isProbablePrime(1) && p.isProbablePrime(certainty) && q.isProbablePrime(certainty);
+        }
+    }
+
+    private static int[] smallPrimes(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (int j = i * i; j < limit; j += i) {
+                    composite[j] = true;
+                }
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, n = 0; i < limit; i++) {
+            if (!composite[i]) {
+                primes[n++] = i;
+            }
+        }
+        return primes;
+    }
+}// PrimeGenerator
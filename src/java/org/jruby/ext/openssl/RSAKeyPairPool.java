@@ -0,0 +1,210 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in pools of RSA key pairs generated ahead of time on background
+ * threads. Once a pool is enabled for some (bits, exponent), key generation
+ * for those parameters takes a ready pair and schedules a replacement; when
+ * the pool has run dry the pair is generated on the calling thread as
+ * before. Nothing is pooled unless {@link #enable} was called.
+ */
+public class RSAKeyPairPool {
+    private static final ConcurrentMap<String, RSAKeyPairPool> pools = new ConcurrentHashMap<String, RSAKeyPairPool>();
+    private static ExecutorService background;
+
+    private final int bits;
+    private final BigInteger exponent;
+    private final BlockingQueue<KeyPair> ready;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean enabled = true;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private RSAKeyPairPool(int bits, BigInteger exponent, int capacity) {
+        this.bits = bits;
+        this.exponent = exponent;
+        this.ready = new ArrayBlockingQueue<KeyPair>(capacity);
+    }
+
+    /**
+     * Starts keeping up to capacity pre-generated pairs for bits and exponent.
+     */
+    public static void enable(int bits, BigInteger exponent, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("pool size must be positive");
+        }
+        RSAKeyPairPool pool = new RSAKeyPairPool(bits, exponent, capacity);
+        RSAKeyPairPool old = pools.put(key(bits, exponent), pool);
+        if (old != null) {
+            old.enabled = false;
+        }
+        pool.refill();
+    }
+
+    public static void disable(int bits, BigInteger exponent) {
+        RSAKeyPairPool old = pools.remove(key(bits, exponent));
+        if (old != null) {
+            old.enabled = false;
+            old.ready.clear();
+        }
+    }
+
+    public static List<RSAKeyPairPool> getPools() {
+        return new ArrayList<RSAKeyPairPool>(pools.values());
+    }
+
+    /**
+     * Generates an RSA key pair, from the pool for these parameters if there is one.
+     */
+    public static KeyPair generate(int bits, BigInteger exponent) throws GeneralSecurityException {
+        RSAKeyPairPool pool = pools.get(key(bits, exponent));
+        if (pool == null) {
+            return generateKeyPair(bits, exponent);
+        }
+        return pool.take();
+    }
+
+    static KeyPair generateKeyPair(int bits, BigInteger exponent) throws GeneralSecurityException {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA", OpenSSLReal.PROVIDER);
+        gen.initialize(new RSAKeyGenParameterSpec(bits, exponent), RandomService.getSecureRandom());
+        return gen.generateKeyPair();
+    }
+
+    private KeyPair take() throws GeneralSecurityException {
+        long start = System.nanoTime();
+        KeyPair pair = ready.poll();
+        try {
+            if (pair != null) {
+                hits.incrementAndGet();
+                return pair;
+            }
+            misses.incrementAndGet();
+            return generateKeyPair(bits, exponent);
+        } finally {
+            long waited = System.nanoTime() - start;
+            waitNanos.addAndGet(waited);
+            long max;
+            while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited));
+            refill();
+        }
+    }
+
+    private void refill() {
+        while (enabled) {
+            int current = pending.get();
+            if (ready.remainingCapacity() - current <= 0) {
+                break;
+            }
+            if (pending.compareAndSet(current, current + 1)) {
+                getBackground().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            if (enabled) {
+                                ready.offer(generateKeyPair(bits, exponent));
+                            }
+                        } catch (GeneralSecurityException e) {
+                            // callers will generate their own on a miss
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getBackground() {
+        if (background == null) {
+            background = Executors.newFixedThreadPool(WorkerPool.parallelism(), new WorkerPool.DaemonThreadFactory("jruby-openssl-rsa"));
+        }
+        return background;
+    }
+
+    private static String key(int bits, BigInteger exponent) {
+        return bits + ":" + exponent;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public BigInteger getExponent() {
+        return exponent;
+    }
+
+    public int getCapacity() {
+        return ready.size() + ready.remainingCapacity();
+    }
+
+    public int getDepth() {
+        return ready.size();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Total time callers spent getting pairs out of this pool, in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+}// RSAKeyPairPool
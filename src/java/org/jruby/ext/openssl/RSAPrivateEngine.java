@@ -0,0 +1,203 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+
+import org.bouncycastle.crypto.AsymmetricBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.encodings.ISO9796d1Encoding;
+import org.bouncycastle.crypto.encodings.OAEPEncoding;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+
+/**
+ * Private key operations for one RSA key, keeping the CRT parameters and
+ * the blinding pair between operations instead of setting up a new JCE
+ * Cipher each time. The blinding pair (r^e, r^-1 mod n) is squared after
+ * every use and replaced with a fresh random one every
+ * {@link #BLINDING_REFRESH} uses, the same schedule OpenSSL follows.
+ * Instances are safe to share between threads.
+ */
+public class RSAPrivateEngine {
+    static final int BLINDING_REFRESH = 32;
+
+    private final RSAPrivateCrtKey key;
+    private final BigInteger n;
+    private final BigInteger e;
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger dP;
+    private final BigInteger dQ;
+    private final BigInteger qInv;
+    private final RSAKeyParameters params;
+
+    private BigInteger blind;
+    private BigInteger unblind;
+    private int blindingUses = BLINDING_REFRESH;
+
+    public RSAPrivateEngine(RSAPrivateCrtKey key) {
+        this.key = key;
+        this.n = key.getModulus();
+        this.e = key.getPublicExponent();
+        this.p = key.getPrimeP();
+        this.q = key.getPrimeQ();
+        this.dP = key.getPrimeExponentP();
+        this.dQ = key.getPrimeExponentQ();
+        this.qInv = key.getCrtCoefficient();
+        this.params = new RSAKeyParameters(true, n, key.getPrivateExponent());
+    }
+
+    public boolean isFor(RSAPrivateCrtKey other) {
+        return key == other;
+    }
+
+    /**
+     * Runs one private encryption (signing) or decryption with the given
+     * OpenSSL padding constant: 1 PKCS#1, 2 SSLv23 (ISO 9796-1 here, as
+     * the JCE path has always done), 3 none, 4 OAEP.
+     */
+    public byte[] process(boolean forEncryption, int padding, byte[] input) throws InvalidCipherTextException {
+        AsymmetricBlockCipher cipher = new Block();
+        switch (padding) {
+        case 1:
+            cipher = new PKCS1Encoding(cipher);
+            break;
+        case 2:
+            cipher = new ISO9796d1Encoding(cipher);
+            break;
+        case 4:
+            cipher = new OAEPEncoding(cipher, new MD5Digest());
+            break;
+        }
+        cipher.init(forEncryption, new ParametersWithRandom(params, RandomService.getSecureRandom()));
+        try {
+            return cipher.processBlock(input, 0, input.length);
+        } catch (DataLengthException e) {
+            throw new InvalidCipherTextException(e.getMessage());
+        }
+    }
+
+    /**
+     * m = c^d mod n, computed with the CRT and blinded.
+     */
+    BigInteger privateOperation(BigInteger input) {
+        BigInteger[] pair = nextBlinding();
+        BigInteger blinded = input.multiply(pair[0]).mod(n);
+
+        BigInteger mP = blinded.remainder(p).modPow(dP, p);
+        BigInteger mQ = blinded.remainder(q).modPow(dQ, q);
+        BigInteger h = mP.subtract(mQ).multiply(qInv).mod(p);
+        BigInteger m = h.multiply(q).add(mQ);
+
+        return m.multiply(pair[1]).mod(n);
+    }
+
+    private synchronized BigInteger[] nextBlinding() {
+        if (blindingUses >= BLINDING_REFRESH) {
+            SecureRandom random = RandomService.getSecureRandom();
+            BigInteger r;
+            do {
+                r = new BigInteger(n.bitLength() - 1, random);
+            } while (r.signum() == 0 || !r.gcd(n).equals(BigInteger.ONE));
+            blind = r.modPow(e, n);
+            unblind = r.modInverse(n);
+            blindingUses = 0;
+        } else {
+            blind = blind.multiply(blind).mod(n);
+            unblind = unblind.multiply(unblind).mod(n);
+        }
+        blindingUses++;
+        return new BigInteger[] { blind, unblind };
+    }
+
+    /**
+     * The raw RSA block, converting between bytes and integers exactly as
+     * BouncyCastle's own RSA engine does so that the padding encodings
+     * wrapped around it behave the same as through the JCE.
+     */
+    private class Block implements AsymmetricBlockCipher {
+        private boolean forEncryption;
+
+        public void init(boolean forEncryption, CipherParameters param) {
+            this.forEncryption = forEncryption;
+        }
+
+        public int getInputBlockSize() {
+            int bitSize = n.bitLength();
+            return forEncryption ? (bitSize + 7) / 8 - 1 : (bitSize + 7) / 8;
+        }
+
+        public int getOutputBlockSize() {
+            int bitSize = n.bitLength();
+            return forEncryption ? (bitSize + 7) / 8 : (bitSize + 7) / 8 - 1;
+        }
+
+        public byte[] processBlock(byte[] in, int inOff, int inLen) {
+            if (inLen > getInputBlockSize() + 1) {
+                throw new DataLengthException("input too large for RSA cipher.");
+            } else if (inLen == getInputBlockSize() + 1 && !forEncryption) {
+                throw new DataLengthException("input too large for RSA cipher.");
+            }
+            byte[] block = in;
+            if (inOff != 0 || inLen != in.length) {
+                block = new byte[inLen];
+                System.arraycopy(in, inOff, block, 0, inLen);
+            }
+            BigInteger input = new BigInteger(1, block);
+            if (input.compareTo(n) >= 0) {
+                throw new DataLengthException("input too large for RSA cipher.");
+            }
+
+            byte[] output = privateOperation(input).toByteArray();
+            if (forEncryption) {
+                if (output[0] == 0 && output.length > getOutputBlockSize()) {
+                    byte[] tmp = new byte[output.length - 1];
+                    System.arraycopy(output, 1, tmp, 0, tmp.length);
+                    return tmp;
+                }
+                if (output.length < getOutputBlockSize()) {
+                    byte[] tmp = new byte[getOutputBlockSize()];
+                    System.arraycopy(output, 0, tmp, tmp.length - output.length, output.length);
+                    return tmp;
+                }
+            } else if (output[0] == 0) {
+                byte[] tmp = new byte[output.length - 1];
+                System.arraycopy(output, 1, tmp, 0, tmp.length);
+                return tmp;
+            }
+            return output;
+        }
+    }
+}
@@ -27,7 +27,10 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl;
 
-import java.security.SecureRandom;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
@@ -35,6 +38,7 @@ import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyString;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.ByteList;
 
@@ -42,9 +46,11 @@ import org.jruby.util.ByteList;
  * @author <a href="mailto:ola.bini@ki.se">Ola Bini</a>
  */
 public class Random {
-    private final static class RandomHolder {
-        public java.util.Random[] randomizers;
-    }
+    private final static int RANDOM_FILE_BYTES = 1024;
+    // how much of a device such as /dev/urandom load_random_file takes, as OpenSSL
+    private final static int RANDOM_DEVICE_BYTES = 2048;
+    private final static int RANDOM_FILE_MAX_BYTES = 1024 * 1024;
+
     public static void createRandom(Ruby runtime, RubyModule ossl) {
         RubyModule rand = ossl.defineModuleUnder("Random");
 
@@ -52,43 +58,87 @@ public class Random {
         rand.defineClassUnder("RandomError",osslError,osslError.getAllocator());
 
         rand.defineAnnotatedMethods(Random.class);
+    }
 
-        RandomHolder holder = new RandomHolder();
-        holder.randomizers = new java.util.Random[]{new java.util.Random(), new SecureRandom()};
-        rand.dataWrapStruct(holder);
+    public static RaiseException newRandomError(Ruby runtime, String message) {
+        return new RaiseException(runtime, ((RubyModule)runtime.getModule("OpenSSL").getConstantAt("Random")).getClass("RandomError"), message, true);
     }
 
     @JRubyMethod(meta=true)
     public static IRubyObject seed(IRubyObject recv, IRubyObject arg) {
-        return recv.getRuntime().getNil();
+        RandomService.seed(arg.convertToString().getBytes());
+        return arg;
     }
+    /**
+     * Mixes a file into the seed, reading it to EOF as RAND_load_file
+     * does. Devices and pipes report no length and may never end, so only
+     * the first {@link #RANDOM_DEVICE_BYTES} of them are taken; regular
+     * files are read up to {@link #RANDOM_FILE_MAX_BYTES}.
+     */
     @JRubyMethod(meta=true)
     public static IRubyObject load_random_file(IRubyObject recv, IRubyObject arg) {
-        return recv.getRuntime().getNil();
+        File file = new File(arg.convertToString().toString());
+        long limit = file.isFile() ? RANDOM_FILE_MAX_BYTES : RANDOM_DEVICE_BYTES;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] buf = new byte[RANDOM_FILE_BYTES];
+            long total = 0;
+            int read;
+            while (total < limit && (read = in.read(buf, 0, (int) Math.min(buf.length, limit - total))) != -1) {
+                if (read == buf.length) {
+                    RandomService.seed(buf);
+                } else {
+                    byte[] part = new byte[read];
+                    System.arraycopy(buf, 0, part, 0, read);
+                    RandomService.seed(part);
+                }
+                total += read;
+            }
+        } catch (IOException e) {
+            throw newRandomError(recv.getRuntime(), "error while reading file: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (Exception e) {}
+            }
+        }
+        return recv.getRuntime().getTrue();
     }
     @JRubyMethod(meta=true)
     public static IRubyObject write_random_file(IRubyObject recv, IRubyObject arg) {
-        return recv.getRuntime().getNil();
+        byte[] buf = new byte[RANDOM_FILE_BYTES];
+        RandomService.nextBytes(buf);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(arg.convertToString().toString());
+            out.write(buf);
+        } catch (IOException e) {
+            throw newRandomError(recv.getRuntime(), "error while writing file: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (Exception e) {}
+            }
+        }
+        return recv.getRuntime().getTrue();
     }
 
     @JRubyMethod(meta=true)
     public static IRubyObject random_bytes(IRubyObject recv, IRubyObject arg) {
-        return generate(recv, arg, 1);
+        return generate(recv, arg);
     }
 
     @JRubyMethod(meta=true)
     public static IRubyObject pseudo_bytes(IRubyObject recv, IRubyObject arg) {
-        return generate(recv, arg, 0);
+        return generate(recv, arg);
     }
 
-    private static RubyString generate(IRubyObject recv, IRubyObject arg, int ix) {
-        RandomHolder holder = (RandomHolder)recv.dataGetStruct();
+    private static RubyString generate(IRubyObject recv, IRubyObject arg) {
         int len = RubyNumeric.fix2int(arg);
         if (len < 0 || len > Integer.MAX_VALUE) {
             throw recv.getRuntime().newArgumentError("negative string size (or size too big)");
         }
         byte[] buf = new byte[len];
-        holder.randomizers[ix].nextBytes(buf);
+        RandomService.nextBytes(buf);
         return RubyString.newString(recv.getRuntime(), new ByteList(buf,false));
     }
 
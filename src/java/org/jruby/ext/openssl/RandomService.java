@@ -0,0 +1,145 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * The one place randomness is taken from. Instead of every class seeding
+ * (and locking) its own SecureRandom, callers share a power-of-two set of
+ * independently seeded generators and are spread over them by thread id.
+ *
+ * The algorithm defaults to SHA1PRNG and can be chosen with the
+ * <code>jruby.openssl.random.algorithm</code> system property or
+ * {@link #setAlgorithm(String)}, e.g. NativePRNGNonBlocking. An unknown
+ * algorithm in the property falls back to the platform's default
+ * SecureRandom; setAlgorithm rejects it and keeps the current one.
+ */
+public class RandomService {
+    public final static String ALGORITHM_PROPERTY = "jruby.openssl.random.algorithm";
+    public final static String DEFAULT_ALGORITHM = "SHA1PRNG";
+
+    private static volatile String algorithm;
+    private static volatile SecureRandom[] stripes;
+
+    static {
+        String algo = null;
+        try {
+            algo = System.getProperty(ALGORITHM_PROPERTY);
+        } catch (SecurityException e) {
+            // not allowed to look at properties, use the default
+        }
+        algorithm = algo != null ? algo : DEFAULT_ALGORITHM;
+    }
+
+    private RandomService() {}
+
+    public static String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Switches all callers over to freshly seeded generators of the given algorithm.
+     */
+    public static synchronized void setAlgorithm(String algo) throws NoSuchAlgorithmException {
+        SecureRandom.getInstance(algo);
+        algorithm = algo;
+        stripes = null;
+    }
+
+    /**
+     * Makes every caller draw from the given generator, e.g. a hardware
+     * backed one, until the next call to setAlgorithm. With null, freshly
+     * seeded generators of the current algorithm are used again.
+     */
+    public static synchronized void setSecureRandom(SecureRandom random) {
+        stripes = random == null ? null : new SecureRandom[] { random };
+    }
+
+    /**
+     * Returns the generator the current thread should use.
+     */
+    public static SecureRandom getSecureRandom() {
+        SecureRandom[] rands = stripes;
+        if (rands == null) {
+            rands = createStripes();
+        }
+        return rands[(int) Thread.currentThread().getId() & (rands.length - 1)];
+    }
+
+    public static void nextBytes(byte[] bytes) {
+        getSecureRandom().nextBytes(bytes);
+    }
+
+    /**
+     * Mixes the given material into every generator; setSeed supplements,
+     * never replaces, the existing state.
+     */
+    public static void seed(byte[] bytes) {
+        SecureRandom[] rands = stripes;
+        if (rands == null) {
+            rands = createStripes();
+        }
+        for (int i = 0; i < rands.length; i++) {
+            rands[i].setSeed(bytes);
+        }
+    }
+
+    private static synchronized SecureRandom[] createStripes() {
+        SecureRandom[] rands = stripes;
+        if (rands != null) {
+            return rands;
+        }
+        int count = 1;
+        int wanted = java.lang.Runtime.getRuntime().availableProcessors() * 2;
+        while (count < wanted) {
+            count <<= 1;
+        }
+        SecureRandom seeder = new SecureRandom();
+        rands = new SecureRandom[count];
+        for (int i = 0; i < count; i++) {
+            rands[i] = newGenerator(seeder);
+        }
+        return stripes = rands;
+    }
+
+    private static SecureRandom newGenerator(SecureRandom seeder) {
+        byte[] seed = new byte[32];
+        // nextBytes (unlike generateSeed) never waits for the entropy pool
+        seeder.nextBytes(seed);
+        SecureRandom rand;
+        try {
+            rand = SecureRandom.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            rand = new SecureRandom();
+        }
+        rand.setSeed(seed);
+        return rand;
+    }
+}// RandomService
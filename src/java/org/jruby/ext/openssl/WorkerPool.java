@@ -0,0 +1,134 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 JRuby contributors
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lazily created pool of daemon threads, one per processor, shared by the
+ * CPU bound work that is split up across cores (prime searches, batch
+ * operations). Tasks submitted here must never block waiting for other
+ * tasks of the same pool.
+ */
+public class WorkerPool {
+    private static ExecutorService executor;
+    private static final ThreadLocal<Boolean> inPool = new ThreadLocal<Boolean>();
+
+    /**
+     * A piece of work over the index range [from, to) of some batch.
+     */
+    public interface Slice {
+        void run(int from, int to) throws Exception;
+    }
+
+    private WorkerPool() {}
+
+    public static int parallelism() {
+        return java.lang.Runtime.getRuntime().availableProcessors();
+    }
+
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism(), new DaemonThreadFactory("jruby-openssl-worker") {
+                public Thread newThread(final Runnable r) {
+                    return super.newThread(new Runnable() {
+                        public void run() {
+                            inPool.set(Boolean.TRUE);
+                            r.run();
+                        }
+                    });
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * True on the pool's own threads, which must not wait for more pool work.
+     */
+    public static boolean isWorkerThread() {
+        return inPool.get() != null;
+    }
+
+    /**
+     * Runs slice over [0, count), split into one range per processor on the
+     * pool when there are at least minSlice items per range, or all at once
+     * on the calling thread otherwise. Returns when every range is done; the
+     * first failure is rethrown wrapped in an ExecutionException.
+     */
+    public static void forEachSlice(int count, int minSlice, final Slice slice) throws ExecutionException, InterruptedException {
+        int slices = Math.min(parallelism(), count / Math.max(minSlice, 1));
+        if (slices < 2 || isWorkerThread()) {
+            // a FutureTask gives the inline case the same failure wrapping
+            FutureTask<Object> task = new FutureTask<Object>(range(slice, 0, count));
+            task.run();
+            task.get();
+            return;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(slices);
+        for (int i = 0; i < slices; i++) {
+            tasks.add(range(slice, (int) ((long) count * i / slices), (int) ((long) count * (i + 1) / slices)));
+        }
+        for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+            future.get();
+        }
+    }
+
+    private static Callable<Object> range(final Slice slice, final int from, final int to) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                slice.run(from, to);
+                return null;
+            }
+        };
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}// WorkerPool
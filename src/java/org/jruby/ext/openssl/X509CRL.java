@@ -28,6 +28,7 @@
 package org.jruby.ext.openssl;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.StringWriter;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
@@ -35,22 +36,22 @@ import java.security.cert.CertificateFactory;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1InputStream;
-import org.bouncycastle.asn1.DERBoolean;
-import org.bouncycastle.asn1.DEREncodable;
 import org.bouncycastle.asn1.DERInteger;
 import org.bouncycastle.asn1.DERObject;
 import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x509.Time;
 import org.bouncycastle.x509.X509V2CRLGenerator;
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
+import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
@@ -99,10 +100,30 @@ public class X509CRL extends RubyObject {
 
     private DERObject crl_v;
 
+    // the CRL as read, kept until it is signed again; revoked entries are
+    // only read out of it when asked for
+    private byte[] der;
+    private int revokedStart;
+    private int revokedEnd;
+    private boolean revokedLoaded = true;
+    private DERObjectIdentifier sigAlgOid;
+
     java.security.cert.X509CRL getCRL() {
+        if(crl == null && der != null) {
+            try {
+                CertificateFactory cf = CertificateFactory.getInstance("X.509",OpenSSLReal.PROVIDER);
+                crl = (java.security.cert.X509CRL)cf.generateCRL(new ByteArrayInputStream(der));
+            } catch(GeneralSecurityException e) {
+                throw newCRLError(getRuntime(), e.getMessage());
+            }
+        }
         return crl;
     }
 
+    private static RaiseException newCRLError(Ruby runtime, String message) {
+        return new RaiseException(runtime, (RubyClass)(((RubyModule)(runtime.getModule("OpenSSL").getConstant("X509"))).getConstant("CRLError")), message, true);
+    }
+
     public X509CRL(Ruby runtime, RubyClass type) {
         super(runtime,type);
     }
@@ -120,54 +141,107 @@ public class X509CRL extends RubyObject {
             return this;
         }
         
-        ByteArrayInputStream bis = new ByteArrayInputStream(args[0].convertToString().getBytes());
-        CertificateFactory cf = CertificateFactory.getInstance("X.509",OpenSSLReal.PROVIDER);
-        crl = (java.security.cert.X509CRL)cf.generateCRL(bis);
-        crl_v = new ASN1InputStream(new ByteArrayInputStream(args[0].convertToString().getBytes())).readObject();
-        DEREncodable v0 = ((DERSequence)(((DERSequence)crl_v).getObjectAt(0))).getObjectAt(0);
-        if(v0 instanceof DERInteger) {
-            set_version(getRuntime().newFixnum(((DERInteger)v0).getValue().intValue()));
+        byte[] bytes = args[0].convertToString().getBytes();
+        if(bytes.length > 0 && bytes[0] == 0x30) {
+            der = bytes;
         } else {
-            set_version(getRuntime().newFixnum(2));
+            CertificateFactory cf = CertificateFactory.getInstance("X.509",OpenSSLReal.PROVIDER);
+            crl = (java.security.cert.X509CRL)cf.generateCRL(new ByteArrayInputStream(bytes));
+            der = crl.getEncoded();
         }
-        set_last_update(RubyTime.newTime(getRuntime(),crl.getThisUpdate().getTime()));
-        set_next_update(RubyTime.newTime(getRuntime(),crl.getNextUpdate().getTime()));
-        ThreadContext tc = getRuntime().getCurrentContext();
-        set_issuer(((RubyModule)(getRuntime().getModule("OpenSSL").getConstant("X509"))).getConstant("Name").callMethod(tc,"new",RubyString.newString(getRuntime(), crl.getIssuerX500Principal().getEncoded())));
-
-        revoked = getRuntime().newArray();
-
-        DERSequence seqa = (DERSequence)((DERSequence)crl_v).getObjectAt(0);
-        DERObject maybe_ext = (DERObject)seqa.getObjectAt(seqa.size()-1);
-        if(maybe_ext instanceof DERTaggedObject && ((DERTaggedObject)maybe_ext).getTagNo() == 0) {
-            DERSequence exts = (DERSequence)((DERTaggedObject)maybe_ext).getObject();
-            for(int i=0;i<exts.size();i++) {
-                DERSequence seq2 = (DERSequence)exts.getObjectAt(i);
-                boolean critical = false;
-                String oid = ((DERObjectIdentifier)seq2.getObjectAt(0)).getId();
-                if(seq2.getObjectAt(1) == DERBoolean.TRUE) {
-                    critical = true;
-                }
-                byte[] value = crl.getExtensionValue(oid);
-                IRubyObject mASN1 = ((RubyModule)(getRuntime().getModule("OpenSSL"))).getConstant("ASN1");
-                IRubyObject rValue = null;
-                try {
-                    rValue = ASN1.decode(mASN1,ASN1.decode(mASN1,RubyString.newString(getRuntime(), value)).callMethod(tc,"value"));
-                } catch(Exception e) {
-                    rValue = RubyString.newString(getRuntime(), value);
-                }
-                X509Extensions.Extension ext1 = (X509Extensions.Extension)(((RubyModule)(getRuntime().getModule("OpenSSL").getConstant("X509"))).getConstant("Extension").callMethod(tc,"new"));
-                ext1.setRealOid(ext1.getObjectIdentifier(oid));
-                ext1.setRealValue(rValue);
-                ext1.setRealCritical(critical);
-                add_extension(ext1);
-            }
+        try {
+            readFields();
+        } catch(IOException e) {
+            throw newCRLError(getRuntime(), e.getMessage());
         }
-
         changed = false;
         return this;
     }
 
+    /**
+     * Reads everything but the revoked entries straight out of the DER,
+     * noting where revokedCertificates is for later.
+     */
+    private void readFields() throws IOException {
+        Ruby runtime = getRuntime();
+        DERWalker certList = new DERWalker(der).enter(0x30);
+        DERWalker tbs = certList.enter(0x30);
+        if(tbs.peekTag() == 0x02) {
+            set_version(runtime.newFixnum(new BigInteger(tbs.contents(0x02)).intValue()));
+        } else {
+            set_version(runtime.newFixnum(2));
+        }
+        tbs.skip(); // signature, repeated outside the TBSCertList
+        ThreadContext tc = runtime.getCurrentContext();
+        set_issuer(((RubyModule)(runtime.getModule("OpenSSL").getConstant("X509"))).getConstant("Name").callMethod(tc,"new",RubyString.newString(runtime, tbs.element())));
+        set_last_update(RubyTime.newTime(runtime,readTime(tbs.element()).getTime()));
+        if(tbs.peekTag() == 0x17 || tbs.peekTag() == 0x18) {
+            set_next_update(RubyTime.newTime(runtime,readTime(tbs.element()).getTime()));
+        }
+
+        revoked = runtime.newArray();
+        if(tbs.peekTag() == 0x30) {
+            DERWalker list = tbs.enter(0x30);
+            revokedStart = list.getPosition();
+            revokedEnd = list.getEnd();
+            revokedLoaded = false;
+        }
+        if(tbs.peekTag() == 0xA0) {
+            DERObject exts = new ASN1InputStream(tbs.enter(0xA0).element()).readObject();
+            extensions.addAll(X509Extensions.decode(runtime, org.bouncycastle.asn1.x509.X509Extensions.getInstance(exts)));
+        }
+
+        sigAlgOid = (DERObjectIdentifier)new ASN1InputStream(certList.enter(0x30).element()).readObject();
+    }
+
+    private static Date readTime(byte[] encoded) throws IOException {
+        return Time.getInstance(new ASN1InputStream(encoded).readObject()).getDate();
+    }
+
+    /**
+     * Reads the next entry of a revokedCertificates walker into a Revoked.
+     */
+    private IRubyObject readRevoked(RubyClass cRevoked, DERWalker list) throws IOException {
+        Ruby runtime = getRuntime();
+        DERWalker entry = list.enter(0x30);
+        IRubyObject serial = RubyBignum.bignorm(runtime, new BigInteger(entry.contents(0x02)));
+        IRubyObject time = RubyTime.newTime(runtime, readTime(entry.element()).getTime()).callMethod(runtime.getCurrentContext(),"getutc");
+        ((RubyTime)time).setMicroseconds(0);
+        List<IRubyObject> exts;
+        if(entry.hasNext()) {
+            DERObject seq = new ASN1InputStream(entry.element()).readObject();
+            exts = X509Extensions.decode(runtime, org.bouncycastle.asn1.x509.X509Extensions.getInstance(seq));
+        } else {
+            exts = new ArrayList<IRubyObject>();
+        }
+        return X509Revoked.newRevoked(runtime, cRevoked, serial, time, exts);
+    }
+
+    private RubyClass getRevokedClass() {
+        return (RubyClass)((RubyModule)getRuntime().getModule("OpenSSL").getConstant("X509")).getConstant("Revoked");
+    }
+
+    /**
+     * Turns the revoked entries still in the DER into the revoked array.
+     */
+    private void loadRevoked() {
+        if(revokedLoaded) {
+            return;
+        }
+        RubyClass cRevoked = getRevokedClass();
+        RubyArray list = getRuntime().newArray();
+        try {
+            DERWalker entries = new DERWalker(der, revokedStart, revokedEnd);
+            while(entries.hasNext()) {
+                list.append(readRevoked(cRevoked, entries));
+            }
+        } catch(IOException e) {
+            throw newCRLError(getRuntime(), e.getMessage());
+        }
+        revoked = list;
+        revokedLoaded = true;
+    }
+
     @JRubyMethod
     public IRubyObject initialize_copy(IRubyObject obj) {
         System.err.println("WARNING: unimplemented method called: CRL#init_copy");
@@ -181,13 +255,16 @@ public class X509CRL extends RubyObject {
     @JRubyMethod(name={"to_pem","to_s"})
     public IRubyObject to_pem() throws Exception {
         StringWriter w = new StringWriter();
-        PEMInputOutput.writeX509CRL(w,crl);
+        PEMInputOutput.writeX509CRL(w,getCRL());
         w.close();
         return getRuntime().newString(w.toString());
     }
 
     @JRubyMethod
     public IRubyObject to_der() throws Exception {
+        if(crl_v == null) {
+            return RubyString.newString(getRuntime(), der);
+        }
         return RubyString.newString(getRuntime(), crl_v.getEncoded());
     }
 
@@ -201,7 +278,7 @@ public class X509CRL extends RubyObject {
         sbe.append("Certificate Revocation List (CRL):\n");
         sbe.append(IND8).append("Version ").append(RubyNumeric.fix2int(version)+1).append(" (0x");
         sbe.append(Integer.toString(RubyNumeric.fix2int(version),16)).append(")\n");
-        sbe.append(IND8).append("Signature Algorithm: ").append(ASN1.nid2ln(getRuntime(),ASN1.obj2nid(getRuntime(),((DERObjectIdentifier)((DERSequence)((DERSequence)crl_v).getObjectAt(1)).getObjectAt(0))))).append("\n");
+        sbe.append(IND8).append("Signature Algorithm: ").append(ASN1.nid2ln(getRuntime(),ASN1.obj2nid(getRuntime(),sigAlgOid))).append("\n");
         sbe.append(IND8).append("Issuer: ").append(issuer()).append("\n");
         sbe.append(IND8).append("Last Update: ").append(ASN_DATE.format(((RubyTime)last_update()).getJavaDate())).append("\n");
         if(!next_update().isNil()) {
@@ -311,18 +388,51 @@ public class X509CRL extends RubyObject {
 
     @JRubyMethod
     public IRubyObject revoked() {
+        loadRevoked();
         return this.revoked;
     }
 
+    /**
+     * Yields the revoked entries one by one. For a CRL that was read in,
+     * and whose revoked list has not been asked for, they are read out of
+     * the DER as they are yielded and not kept.
+     */
+    @JRubyMethod(frame=true)
+    public IRubyObject each_revoked(Block block) {
+        Ruby runtime = getRuntime();
+        ThreadContext ctx = runtime.getCurrentContext();
+        if(!block.isGiven()) {
+            return callMethod(ctx, "enum_for", runtime.newSymbol("each_revoked"));
+        }
+        if(revokedLoaded) {
+            for(Iterator iter = ((RubyArray)revoked).getList().iterator();iter.hasNext();) {
+                block.yield(ctx, (IRubyObject)iter.next());
+            }
+            return this;
+        }
+        RubyClass cRevoked = getRevokedClass();
+        try {
+            DERWalker entries = new DERWalker(der, revokedStart, revokedEnd);
+            while(entries.hasNext()) {
+                block.yield(ctx, readRevoked(cRevoked, entries));
+            }
+        } catch(IOException e) {
+            throw newCRLError(runtime, e.getMessage());
+        }
+        return this;
+    }
+
     @JRubyMethod(name="revoked=")
     public IRubyObject set_revoked(IRubyObject val) {
         changed = true;
+        revokedLoaded = true;
         this.revoked = val;
         return val;
     }
 
     @JRubyMethod
     public IRubyObject add_revoked(IRubyObject val) {
+        loadRevoked();
         changed = true;
         this.revoked.callMethod(getRuntime().getCurrentContext(),"<<",val);
         return val;
@@ -359,6 +469,7 @@ public class X509CRL extends RubyObject {
             throw new RaiseException(getRuntime(), (RubyClass)(((RubyModule)(getRuntime().getModule("OpenSSL").getConstant("X509"))).getConstant("CRLError")), null, true);
         }
 
+        loadRevoked();
         sig_alg = getRuntime().newString(digAlg);
         generator.setSignatureAlgorithm(digAlg + "WITH" + keyAlg);
 
@@ -401,6 +512,8 @@ public class X509CRL extends RubyObject {
         build2.add(((DERSequence)crl_v).getObjectAt(1));
         build2.add(((DERSequence)crl_v).getObjectAt(2));
         crl_v = new DERSequence(build2);
+        sigAlgOid = (DERObjectIdentifier)((DERSequence)((DERSequence)crl_v).getObjectAt(1)).getObjectAt(0);
+        der = null;
         changed = false;
         return this;
     }
@@ -415,7 +528,7 @@ public class X509CRL extends RubyObject {
         OpenSSLReal.doWithBCProvider(new Runnable() {
                 public void run() {
                     try {
-                        crl.verify(((PKey)key).getPublicKey());
+                        getCRL().verify(((PKey)key).getPublicKey());
                         result[0] = true;
                     } catch(java.security.GeneralSecurityException e) {
                         result[0] = false;
@@ -42,10 +42,11 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -58,9 +59,10 @@ import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.x509.X509V3CertificateGenerator;
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
+import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
+import org.jruby.RubyHash;
 import org.jruby.RubyModule;
-import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
 import org.jruby.RubyString;
 import org.jruby.RubyTime;
@@ -110,9 +112,13 @@ public class X509Cert extends RubyObject {
     private List<IRubyObject> extensions;
 
     private boolean changed = true;
+    // true while the fields above are still to be built from cert
+    private boolean lazy = false;
 
     private X509V3CertificateGenerator generator = new X509V3CertificateGenerator();
     private X509Certificate cert;
+    // the shared parse cert came from, if it came from CertificateCache
+    private CertificateCache.Parsed cached;
 
     X509AuxCertificate getAuxCert() {
         if(null == cert) {
@@ -129,6 +135,18 @@ public class X509Cert extends RubyObject {
         return cr.callMethod(runtime.getCurrentContext(),"new",RubyString.newString(runtime, c.getEncoded()));
     }
 
+    @JRubyMethod(name="cache_stats", meta=true)
+    public static IRubyObject cache_stats(IRubyObject recv) {
+        Ruby runtime = recv.getRuntime();
+        ThreadContext ctx = runtime.getCurrentContext();
+        RubyHash hash = RubyHash.newHash(runtime);
+        hash.op_aset(ctx, runtime.newString("capacity"), runtime.newFixnum(CertificateCache.getCapacity()));
+        hash.op_aset(ctx, runtime.newString("size"), runtime.newFixnum(CertificateCache.getSize()));
+        hash.op_aset(ctx, runtime.newString("hits"), runtime.newFixnum(CertificateCache.getHits()));
+        hash.op_aset(ctx, runtime.newString("misses"), runtime.newFixnum(CertificateCache.getMisses()));
+        return hash;
+    }
+
     @JRubyMethod(name="initialize", optional = 1, frame=true)
     public IRubyObject initialize(ThreadContext context, IRubyObject[] args, Block unusedBlock) {
         Ruby runtime = context.getRuntime();
@@ -136,74 +154,74 @@ public class X509Cert extends RubyObject {
         if(args.length == 0) {
             return this;
         }
-        ThreadContext tc = runtime.getCurrentContext();
         IRubyObject arg = OpenSSLImpl.to_der_if_possible(args[0]);
-        ByteArrayInputStream bis = new ByteArrayInputStream(arg.convertToString().getBytes());
-        CertificateFactory cf;
-        
-        RubyModule ossl = runtime.getModule("OpenSSL");
-        RubyModule x509 = (RubyModule)ossl.getConstant("X509");
-        IRubyObject x509Name = x509.getConstant("Name");
-        RubyModule pkey = (RubyModule)ossl.getConstant("PKey");
+        byte[] bytes = arg.convertToString().getBytes();
 
         try {
-            cf = CertificateFactory.getInstance("X.509",OpenSSLReal.PROVIDER);
-            cert = (X509Certificate)cf.generateCertificate(bis);
-        } catch (CertificateException ex) {
+            if(bytes.length > 0 && bytes[0] == 0x30) {
+                // DER, the form wrap and the store hand us; share the parse
+                cached = CertificateCache.get(bytes);
+                cert = cached.getCertificate();
+            } else {
+                CertificateFactory cf = CertificateFactory.getInstance("X.509",OpenSSLReal.PROVIDER);
+                cert = (X509Certificate)cf.generateCertificate(new ByteArrayInputStream(bytes));
+            }
+        } catch (GeneralSecurityException ex) {
             throw newCertificateError(runtime, ex);
         }
 
-        set_serial(RubyNumeric.str2inum(runtime,runtime.newString(cert.getSerialNumber().toString()),10));
-        set_not_before(RubyTime.newTime(runtime,cert.getNotBefore().getTime()));
-        set_not_after(RubyTime.newTime(runtime,cert.getNotAfter().getTime()));
-        set_subject(x509Name.callMethod(tc,"new",RubyString.newString(runtime, cert.getSubjectX500Principal().getEncoded())));
-        set_issuer(x509Name.callMethod(tc,"new",RubyString.newString(runtime, cert.getIssuerX500Principal().getEncoded())));
-
-        String algorithm = cert.getPublicKey().getAlgorithm();
-        if ("RSA".equalsIgnoreCase(algorithm)) {
-            set_public_key(pkey.getConstant("RSA").callMethod(tc,"new",RubyString.newString(runtime, cert.getPublicKey().getEncoded())));
-        } else if ("DSA".equalsIgnoreCase(algorithm)) {
-            set_public_key(pkey.getConstant("DSA").callMethod(tc,"new",RubyString.newString(runtime, cert.getPublicKey().getEncoded())));
-        } else {
-            throw newCertificateError(runtime, "The algorithm " + algorithm + " is unsupported for public keys");
-        }
+        // the Ruby side of the certificate is built from cert on first use
+        extensions = null;
+        lazy = true;
+        changed = false;
 
-        IRubyObject extFact = ((RubyClass)(x509.getConstant("ExtensionFactory"))).callMethod(tc,"new");
-        extFact.callMethod(tc,"subject_certificate=",this);
-
-        Set crit = cert.getCriticalExtensionOIDs();
-        if(crit != null) {
-            for(Iterator iter = crit.iterator();iter.hasNext();) {
-                String critOid = (String)iter.next();
-                byte[] value = cert.getExtensionValue(critOid);
-                IRubyObject rValue = ASN1.decode(ossl.getConstant("ASN1"),RubyString.newString(runtime, value)).callMethod(tc,"value");
-                if(critOid.equals("2.5.29.17")) {
-                    add_extension(extFact.callMethod(tc,"create_ext", new IRubyObject[]{runtime.newString(critOid),runtime.newString(rValue.toString()),runtime.getTrue()}));
-                } else {
-                    add_extension(extFact.callMethod(tc,"create_ext", new IRubyObject[]{runtime.newString(critOid),runtime.newString(rValue.toString().substring(2)),runtime.getTrue()}));
-                }
-            }
-        }
+        return this;
+    }
 
-        Set ncrit = cert.getNonCriticalExtensionOIDs();
-        if(ncrit != null) {
-            for(Iterator iter = ncrit.iterator();iter.hasNext();) {
-                String ncritOid = (String)iter.next();
-                byte[] value = cert.getExtensionValue(ncritOid);
-                IRubyObject rValue = ASN1.decode(ossl.getConstant("ASN1"),RubyString.newString(runtime, value)).callMethod(tc,"value");
-
-                if(ncritOid.equals("2.5.29.17")) {
-                    add_extension(extFact.callMethod(tc,"create_ext", new IRubyObject[]{runtime.newString(ncritOid),runtime.newString(rValue.toString()),runtime.getFalse()}));
-                } else {
-                    byte[] dest = new byte[value.length - 4];
-                    System.arraycopy(value, 4, dest, 0, value.length - 4);
-                    add_extension(extFact.callMethod(tc,"create_ext", new IRubyObject[]{runtime.newString(ncritOid),runtime.newString(new ByteList(dest, false)),runtime.getFalse()}));
-                }
-            }
+    /**
+     * Builds every Ruby-level field of a parsed certificate and loads them
+     * into the generator, the way initialize used to do up front. Anything
+     * that modifies or re-signs the certificate calls this first.
+     */
+    private void materialize() {
+        if(!lazy) {
+            return;
         }
+        IRubyObject[] fields = { serial(), not_before(), not_after(), subject(), issuer(), public_key() };
+        extensions();
+        lazy = false;
+        set_serial(fields[0]);
+        set_not_before(fields[1]);
+        set_not_after(fields[2]);
+        set_subject(fields[3]);
+        set_issuer(fields[4]);
+        set_public_key(fields[5]);
         changed = false;
+    }
 
-        return this;
+    private IRubyObject newName(byte[] encoded) {
+        Ruby runtime = getRuntime();
+        RubyModule x509 = (RubyModule)runtime.getModule("OpenSSL").getConstant("X509");
+        return x509.getConstant("Name").callMethod(runtime.getCurrentContext(),"new",RubyString.newString(runtime, encoded));
+    }
+
+    private IRubyObject newPublicKey() {
+        Ruby runtime = getRuntime();
+        PublicKey key = cached != null ? cached.getPublicKey() : cert.getPublicKey();
+        String algorithm = key.getAlgorithm();
+        if (key instanceof RSAPublicKey) {
+            return PKeyRSA.newPublicKey(runtime, (RSAPublicKey)key);
+        } else if (key instanceof DSAPublicKey) {
+            return PKeyDSA.newPublicKey(runtime, (DSAPublicKey)key);
+        } else {
+            throw newCertificateError(runtime, "The algorithm " + algorithm + " is unsupported for public keys");
+        }
+    }
+
+    private static IRubyObject utcTime(IRubyObject time) {
+        IRubyObject utc = time.callMethod(time.getRuntime().getCurrentContext(),"getutc");
+        ((RubyTime)utc).setMicroseconds(0);
+        return utc;
     }
 
     public static RaiseException newCertificateError(Ruby runtime, Exception ex) {
@@ -261,6 +279,7 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod(name="version=")
     public IRubyObject set_version(IRubyObject arg) {
+        materialize();
         if(!arg.equals(this.version)) {
             changed = true;
         }
@@ -275,11 +294,15 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod
     public IRubyObject serial() {
+        if(serial == null && lazy) {
+            serial = RubyBignum.bignorm(getRuntime(), cert.getSerialNumber());
+        }
         return serial;
     }
 
     @JRubyMethod(name="serial=")
     public IRubyObject set_serial(IRubyObject num) {
+        materialize();
         if(!num.equals(this.serial)) {
             changed = true;
         }
@@ -290,11 +313,15 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod
     public IRubyObject subject() {
+        if(subject == null && lazy) {
+            subject = newName(cert.getSubjectX500Principal().getEncoded());
+        }
         return subject;
     }
 
     @JRubyMethod(name="subject=")
     public IRubyObject set_subject(IRubyObject arg) {
+        materialize();
         if(!arg.equals(this.subject)) {
             changed = true;
         }
@@ -305,11 +332,15 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod
     public IRubyObject issuer() {
+        if(issuer == null && lazy) {
+            issuer = newName(cert.getIssuerX500Principal().getEncoded());
+        }
         return issuer;
     }
 
     @JRubyMethod(name="issuer=")
     public IRubyObject set_issuer(IRubyObject arg) {
+        materialize();
         if(!arg.equals(this.issuer)) {
             changed = true;
         }
@@ -320,39 +351,49 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod
     public IRubyObject not_before() {
+        if(not_before == null && lazy) {
+            not_before = utcTime(RubyTime.newTime(getRuntime(),cert.getNotBefore().getTime()));
+        }
         return not_before;
     }
 
     @JRubyMethod(name="not_before=")
     public IRubyObject set_not_before(IRubyObject arg) {
+        materialize();
         changed = true;
-        not_before = arg.callMethod(getRuntime().getCurrentContext(),"getutc");
-        ((RubyTime)not_before).setMicroseconds(0);
+        not_before = utcTime(arg);
         generator.setNotBefore(((RubyTime)not_before).getJavaDate());
         return arg;
     }
 
     @JRubyMethod
     public IRubyObject not_after() {
+        if(not_after == null && lazy) {
+            not_after = utcTime(RubyTime.newTime(getRuntime(),cert.getNotAfter().getTime()));
+        }
         return not_after;
     }
 
     @JRubyMethod(name="not_after=")
     public IRubyObject set_not_after(IRubyObject arg) {
+        materialize();
         changed = true;
-        not_after = arg.callMethod(getRuntime().getCurrentContext(),"getutc");
-        ((RubyTime)not_after).setMicroseconds(0);
+        not_after = utcTime(arg);
         generator.setNotAfter(((RubyTime)not_after).getJavaDate());
         return arg;
     }
 
     @JRubyMethod
     public IRubyObject public_key() {
+        if(public_key == null && lazy) {
+            public_key = newPublicKey();
+        }
         return public_key;
     }
 
     @JRubyMethod(name="public_key=")
     public IRubyObject set_public_key(IRubyObject arg) {
+        materialize();
         if(!arg.equals(this.public_key)) {
             changed = true;
         }
@@ -365,6 +406,8 @@ public class X509Cert extends RubyObject {
     public IRubyObject sign(ThreadContext context, final IRubyObject key, IRubyObject digest) {
         Ruby runtime = context.getRuntime();
         
+        materialize();
+
         // Have to obey some artificial constraints of the OpenSSL implementation. Stupid.
         String keyAlg = ((PKey)key).getAlgorithm();
         String digAlg = ((Digest)digest).getAlgorithm();
@@ -392,6 +435,7 @@ public class X509Cert extends RubyObject {
                 public void run() {
                     try {
                         cert = generator.generate(((PKey)key).getPrivateKey(),"BC");
+                        cached = null;
                     } catch(GeneralSecurityException e) {
                     }
                 }
@@ -434,18 +478,27 @@ public class X509Cert extends RubyObject {
 
     @JRubyMethod
     public IRubyObject extensions() {
+        if(extensions == null && lazy) {
+            try {
+                extensions = X509Extensions.decode(getRuntime(), cert);
+            } catch (IOException ex) {
+                throw newCertificateError(getRuntime(), ex);
+            }
+        }
         return getRuntime().newArray(extensions);
     }
 
     @SuppressWarnings("unchecked")
     @JRubyMethod(name="extensions=")
     public IRubyObject set_extensions(IRubyObject arg) {
+        materialize();
         extensions = ((RubyArray)arg).getList();
         return arg;
     }
 
     @JRubyMethod
     public IRubyObject add_extension(IRubyObject arg) {
+        materialize();
         changed = true;
         DERObjectIdentifier oid = ((X509Extensions.Extension)arg).getRealOid();
         if(oid.equals(new DERObjectIdentifier("2.5.29.17"))) {
@@ -30,12 +30,18 @@ package org.jruby.ext.openssl;
 
 import java.io.IOException;
 import java.security.MessageDigest;
+import java.security.cert.X509Extension;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
 import org.bouncycastle.asn1.DERBitString;
 import org.bouncycastle.asn1.DERBoolean;
 import org.bouncycastle.asn1.DEREncodable;
@@ -84,6 +90,61 @@ public class X509Extensions {
         cX509Ext.defineAnnotatedMethods(Extension.class);
     }
 
+    /**
+     * Builds Extension objects straight from the extensions of a parsed
+     * certificate or CRL, critical ones first. Each value is kept as the
+     * DER it was encoded with and only decoded if Extension#value asks.
+     */
+    public static List<IRubyObject> decode(Ruby runtime, X509Extension source) throws IOException {
+        List<IRubyObject> exts = new ArrayList<IRubyObject>();
+        RubyClass cX509Ext = (RubyClass)((RubyModule)runtime.getModule("OpenSSL").getConstant("X509")).getConstant("Extension");
+        addExtensions(runtime, cX509Ext, source, source.getCriticalExtensionOIDs(), true, exts);
+        addExtensions(runtime, cX509Ext, source, source.getNonCriticalExtensionOIDs(), false, exts);
+        return exts;
+    }
+
+    private static void addExtensions(Ruby runtime, RubyClass cX509Ext, X509Extension source, Set oids, boolean critical, List<IRubyObject> exts) throws IOException {
+        if(oids == null) {
+            return;
+        }
+        for(Iterator iter = oids.iterator();iter.hasNext();) {
+            String oid = (String)iter.next();
+            // getExtensionValue hands back the extnValue OCTET STRING itself
+            byte[] octets = ((DEROctetString)new ASN1InputStream(source.getExtensionValue(oid)).readObject()).getOctets();
+            exts.add(newExtension(runtime, cX509Ext, new DERObjectIdentifier(oid), octets, critical));
+        }
+    }
+
+    /**
+     * Same as {@link #decode(Ruby, X509Extension)} for an already parsed
+     * Extensions sequence, such as those of CRL entries.
+     */
+    public static List<IRubyObject> decode(Ruby runtime, org.bouncycastle.asn1.x509.X509Extensions source) {
+        List<IRubyObject> exts = new ArrayList<IRubyObject>();
+        RubyClass cX509Ext = (RubyClass)((RubyModule)runtime.getModule("OpenSSL").getConstant("X509")).getConstant("Extension");
+        addExtensions(runtime, cX509Ext, source, true, exts);
+        addExtensions(runtime, cX509Ext, source, false, exts);
+        return exts;
+    }
+
+    private static void addExtensions(Ruby runtime, RubyClass cX509Ext, org.bouncycastle.asn1.x509.X509Extensions source, boolean critical, List<IRubyObject> exts) {
+        for(Enumeration oids = source.oids();oids.hasMoreElements();) {
+            DERObjectIdentifier oid = (DERObjectIdentifier)oids.nextElement();
+            org.bouncycastle.asn1.x509.X509Extension ext = source.getExtension(oid);
+            if(ext.isCritical() == critical) {
+                exts.add(newExtension(runtime, cX509Ext, oid, ext.getValue().getOctets(), critical));
+            }
+        }
+    }
+
+    private static Extension newExtension(Ruby runtime, RubyClass cX509Ext, DERObjectIdentifier oid, byte[] octets, boolean critical) {
+        Extension ext = new Extension(runtime, cX509Ext);
+        ext.setRealOid(oid);
+        ext.setRealValue(new String(ByteList.plain(octets)));
+        ext.setRealCritical(critical);
+        return ext;
+    }
+
     public static class ExtensionFactory extends RubyObject {
         public static ObjectAllocator ALLOCATOR = new ObjectAllocator() {
                 public IRubyObject allocate(Ruby runtime, RubyClass klass) {
@@ -570,11 +631,19 @@ public class X509Extensions {
                 System.arraycopy(b1,2,b2,0,b2.length);
                 return getRuntime().newString(Utils.toHex(b2,':'));
             } else if(getRealOid().equals(new DERObjectIdentifier("2.5.29.35"))) { // authorityKeyIdentifier
-                DERSequence seq = (DERSequence)(new ASN1InputStream(getRealValueBytes()).readObject());
+                ASN1Sequence seq = (ASN1Sequence)(new ASN1InputStream(getRealValueBytes()).readObject());
                 StringBuffer out1 = new StringBuffer();
                 if(seq.size() > 0) {
-                    out1.append("keyid:");
-                    out1.append(Utils.toHex(((DEROctetString)seq.getObjectAt(0)).getOctets(),':'));
+                    DEREncodable keyid = seq.getObjectAt(0);
+                    // encoded certificates carry the keyid as [0] IMPLICIT
+                    if(keyid instanceof ASN1TaggedObject) {
+                        ASN1TaggedObject tagged = (ASN1TaggedObject)keyid;
+                        keyid = tagged.getTagNo() == 0 ? ASN1OctetString.getInstance(tagged, false) : null;
+                    }
+                    if(keyid != null) {
+                        out1.append("keyid:");
+                        out1.append(Utils.toHex(((ASN1OctetString)keyid).getOctets(),':'));
+                    }
                 }
                 return getRuntime().newString(out1.toString());
             } else if(getRealOid().equals(new DERObjectIdentifier("2.5.29.21"))) { // CRLReason
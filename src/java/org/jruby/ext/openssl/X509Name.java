@@ -34,17 +34,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
-import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.DERGeneralString;
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.DERNumericString;
 import org.bouncycastle.asn1.DERObject;
 import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.DERString;
+import org.bouncycastle.asn1.DERT61String;
 import org.bouncycastle.asn1.DERTags;
+import org.bouncycastle.asn1.DERUTCTime;
+import org.bouncycastle.asn1.DERUTF8String;
 import org.bouncycastle.asn1.x509.X509DefaultEntryConverter;
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
@@ -112,10 +120,22 @@ public class X509Name extends RubyObject {
     private List<Object> values;
     private List<Object> types;
 
+    // derived from the entries above and dropped whenever they change
+    private byte[] encoded;
+    private org.bouncycastle.asn1.x509.X509Name realName;
+    private Integer hashValue;
+
+    private void invalidate() {
+        encoded = null;
+        realName = null;
+        hashValue = null;
+    }
+
     void addEntry(Object oid, Object value, Object type) {
         oids.add(oid);
         values.add(value);
         types.add(type);
+        invalidate();
     }
     
     public static X509Name create(Ruby runtime, org.bouncycastle.asn1.x509.X509Name realName) {
@@ -125,6 +145,7 @@ public class X509Name extends RubyObject {
     }
 
     void fromASN1Sequence(ASN1Sequence seq) {
+        invalidate();
         oids = new ArrayList<Object>();
         values = new ArrayList<Object>();
         types = new ArrayList<Object>();
@@ -245,9 +266,7 @@ public class X509Name extends RubyObject {
         if(null == oid_v) {
             throw new RaiseException(getRuntime(), (RubyClass)(((RubyModule)(getRuntime().getModule("OpenSSL").getConstant("X509"))).getConstant("NameError")), null, true);
         }
-        oids.add(oid_v);
-        values.add(value);
-        types.add(type);
+        addEntry(oid_v, value, type);
 
         return this;
     }
@@ -339,7 +358,19 @@ else
     }
 
     org.bouncycastle.asn1.x509.X509Name getRealName() {
-        return new org.bouncycastle.asn1.x509.X509Name(new Vector<Object>(oids),new Vector<Object>(values));
+        org.bouncycastle.asn1.x509.X509Name name = realName;
+        if(name == null) {
+            realName = name = new org.bouncycastle.asn1.x509.X509Name(new Vector<Object>(oids),new Vector<Object>(values));
+        }
+        return name;
+    }
+
+    private int getHash() {
+        Integer h = hashValue;
+        if(h == null) {
+            hashValue = h = Integer.valueOf(getRealName().hashCode());
+        }
+        return h.intValue();
     }
 
     @JRubyMethod(name="eql?")
@@ -348,18 +379,30 @@ else
             return getRuntime().getFalse();
         }
         X509Name o = (X509Name)other;
-        org.bouncycastle.asn1.x509.X509Name nm = new org.bouncycastle.asn1.x509.X509Name(new Vector<Object>(oids),new Vector<Object>(values));
-        org.bouncycastle.asn1.x509.X509Name o_nm = new org.bouncycastle.asn1.x509.X509Name(new Vector<Object>(o.oids),new Vector<Object>(o.values));
-        return nm.equals(o_nm) ? getRuntime().getTrue() : getRuntime().getFalse();
+        if(o == this) {
+            return getRuntime().getTrue();
+        }
+        if(getHash() != o.getHash()) {
+            return getRuntime().getFalse();
+        }
+        return getRealName().equals(o.getRealName()) ? getRuntime().getTrue() : getRuntime().getFalse();
     }
 
     @JRubyMethod
     public RubyFixnum hash() {
-        return getRuntime().newFixnum(new org.bouncycastle.asn1.x509.X509Name(new Vector<Object>(oids),new Vector<Object>(values)).hashCode());
+        return getRuntime().newFixnum(getHash());
     }
 
     @JRubyMethod
-    public IRubyObject to_der() throws Exception {
+    public IRubyObject to_der() {
+        byte[] der = encoded;
+        if(der == null) {
+            encoded = der = encode();
+        }
+        return RubyString.newString(getRuntime(), der);
+    }
+
+    private byte[] encode() {
         DERSequence seq = null;
         if(oids.size()>0) {
             ASN1EncodableVector  vec = new ASN1EncodableVector();
@@ -386,17 +429,55 @@ else
         } else {
             seq = new DERSequence();
         }
+        return seq.getDEREncoded();
+    }
 
-        return RubyString.newString(getRuntime(), seq.getDEREncoded());
+    /**
+     * Builds the DER value of an entry from its string form.
+     */
+    private interface EntryFactory {
+        DERObject create(String value);
     }
 
-    private DERObject convert(DERObjectIdentifier oid, String value, int type) throws Exception {
-        Class<? extends ASN1Encodable> clzz = ASN1.classForId(type);
-        if(clzz != null) {
-            java.lang.reflect.Constructor ctor = clzz.getConstructor(new Class[]{String.class});
-            if(null != ctor) {
-                return (DERObject)ctor.newInstance(new Object[]{value});
-            }
+    // indexed by universal tag; the string and time types that have a String constructor
+    private static final EntryFactory[] ENTRY_FACTORIES = new EntryFactory[DERTags.BMP_STRING + 1];
+
+    static {
+        ENTRY_FACTORIES[DERTags.OBJECT_IDENTIFIER] = new EntryFactory() {
+            public DERObject create(String value) { return new DERObjectIdentifier(value); }
+        };
+        ENTRY_FACTORIES[DERTags.UTF8_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERUTF8String(value); }
+        };
+        ENTRY_FACTORIES[DERTags.NUMERIC_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERNumericString(value); }
+        };
+        ENTRY_FACTORIES[DERTags.PRINTABLE_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERPrintableString(value); }
+        };
+        ENTRY_FACTORIES[DERTags.T61_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERT61String(value); }
+        };
+        ENTRY_FACTORIES[DERTags.IA5_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERIA5String(value); }
+        };
+        ENTRY_FACTORIES[DERTags.UTC_TIME] = new EntryFactory() {
+            public DERObject create(String value) { return new DERUTCTime(value); }
+        };
+        ENTRY_FACTORIES[DERTags.GENERALIZED_TIME] = new EntryFactory() {
+            public DERObject create(String value) { return new DERGeneralizedTime(value); }
+        };
+        ENTRY_FACTORIES[DERTags.GENERAL_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERGeneralString(value); }
+        };
+        ENTRY_FACTORIES[DERTags.BMP_STRING] = new EntryFactory() {
+            public DERObject create(String value) { return new DERBMPString(value); }
+        };
+    }
+
+    private DERObject convert(DERObjectIdentifier oid, String value, int type) {
+        if(type >= 0 && type < ENTRY_FACTORIES.length && ENTRY_FACTORIES[type] != null) {
+            return ENTRY_FACTORIES[type].create(value);
         }
         return new X509DefaultEntryConverter().getConvertedValue(oid, value);
     }
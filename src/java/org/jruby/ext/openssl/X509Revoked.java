@@ -27,6 +27,8 @@
  ***** END LICENSE BLOCK *****/
 package org.jruby.ext.openssl;
 
+import java.util.List;
+
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
 import org.jruby.RubyModule;
@@ -62,6 +64,17 @@ public class X509Revoked extends RubyObject {
         super(runtime,type);
     }
 
+    /**
+     * A Revoked with its fields already set, for entries read out of a CRL.
+     */
+    static X509Revoked newRevoked(Ruby runtime, RubyClass cRevoked, IRubyObject serial, IRubyObject time, List<IRubyObject> extensions) {
+        X509Revoked rev = new X509Revoked(runtime, cRevoked);
+        rev.serial = serial;
+        rev.time = time;
+        rev.extensions = runtime.newArray(extensions);
+        return rev;
+    }
+
     @JRubyMethod(name="initialize",rest=true,frame=true)
     public IRubyObject _initialize(IRubyObject[] args, Block unusedBlock) throws Exception {
         serial = getRuntime().getNil();
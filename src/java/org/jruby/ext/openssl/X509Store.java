@@ -35,11 +35,13 @@ import java.io.StringReader;
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
 import org.jruby.RubyFixnum;
+import org.jruby.RubyHash;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyObject;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
+import org.jruby.ext.openssl.x509store.CRLIndex;
 import org.jruby.ext.openssl.x509store.Function2;
 import org.jruby.ext.openssl.x509store.PEMInputOutput;
 import org.jruby.ext.openssl.x509store.X509AuxCertificate;
@@ -47,6 +49,7 @@ import org.jruby.ext.openssl.x509store.Store;
 import org.jruby.ext.openssl.x509store.StoreContext;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 
 /**
@@ -185,6 +188,21 @@ public class X509Store extends RubyObject {
         return this;
     }
 
+    /**
+     * Live CRL revocation indexes, the serials they hold and roughly how
+     * many bytes they take.
+     */
+    @JRubyMethod(name="crl_index_stats", meta=true)
+    public static IRubyObject crl_index_stats(IRubyObject recv) {
+        Ruby runtime = recv.getRuntime();
+        ThreadContext ctx = runtime.getCurrentContext();
+        RubyHash hash = RubyHash.newHash(runtime);
+        hash.op_aset(ctx, runtime.newString("size"), runtime.newFixnum(CRLIndex.getIndexCount()));
+        hash.op_aset(ctx, runtime.newString("serials"), runtime.newFixnum(CRLIndex.getTotalSerials()));
+        hash.op_aset(ctx, runtime.newString("bytes"), runtime.newFixnum(CRLIndex.getTotalFootprint()));
+        return hash;
+    }
+
     @JRubyMethod
     public IRubyObject add_crl(IRubyObject arg) {
         java.security.cert.X509CRL crl = (arg instanceof X509CRL) ? ((X509CRL)arg).getCRL() : null;
@@ -30,6 +30,8 @@ package org.jruby.ext.openssl.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import javax.crypto.Cipher;
 
@@ -138,6 +140,10 @@ public class BIO {
         return new CipherBIOFilter(cipher);
     }
 
+    public static BIO cipherFilter(Cipher cipher, int bufferSize) {
+        return new CipherBIOFilter(cipher, bufferSize);
+    }
+
     public static BIO fromString(String input) {
         MemBIO bio = new MemBIO();
         byte[] buf = null;
@@ -148,6 +154,27 @@ public class BIO {
         return bio;
     }
 
+    /** c: BIO_new_fp
+     *
+     */
+    public static BIO fromInputStream(InputStream in) {
+        return new StreamBIO(in);
+    }
+
+    /** c: BIO_new_fp
+     *
+     */
+    public static BIO toOutputStream(OutputStream out) {
+        return new StreamBIO(out);
+    }
+
+    /** c: BIO_new_file
+     *
+     */
+    public static BIO fromChannel(ReadableByteChannel channel) {
+        return new StreamBIO(Channels.newInputStream(channel));
+    }
+
     /** c: BIO_new(BIO_f_buffered())
      *
      */
@@ -180,14 +207,7 @@ public class BIO {
      *
      */
     public static BIO memBuf(byte[] arr, int offset, int length) {
-        // TODO: create real readonly version of MemBIO.
-        try {
-            BIO bio = new MemBIO();
-            bio.write(arr, offset, length);
-            return bio;
-        } catch(IOException e) {
-            return null;
-        }
+        return new MemBIO(arr, offset, length);
     }
 
     protected BIO nextBio;
@@ -271,6 +291,9 @@ public class BIO {
      *
      */
     public BIO push(BIO bio) {
+        if(Trace.BIO.enabled) {
+            Trace.BIO.log("push " + bio + " onto " + this);
+        }
         BIO lb = this;
         while(lb.nextBio != null) {
             lb = lb.nextBio;
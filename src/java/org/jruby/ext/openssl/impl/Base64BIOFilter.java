@@ -28,54 +28,81 @@
 package org.jruby.ext.openssl.impl;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import org.jruby.ext.openssl.impl.utils.Base64;
 
 /**
+ * Base64 encodes what is written through it, in lines of 64 characters,
+ * and decodes what is read through it, a chunk at a time.
  *
  * @author <a href="mailto:ola.bini@gmail.com">Ola Bini</a>
  */
 public class Base64BIOFilter extends BIOFilter {
-    private OutputStream nextOutput;
-    private InputStream nextInput;
+    private final static int CHUNK_SIZE = 12 * 1024;
 
-    @Override
-    public int write(byte[] out, int offset, int len) throws IOException {
-        this.nextOutput.write(out, offset, len);
-        return len;
+    private Base64Codec.Encoder encoder = new Base64Codec.Encoder(Base64Codec.PEM_LINE_LENGTH);
+    private Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+
+    private byte[] inBuf;
+    private byte[] outBuf;
+    private int outOffset = 0;
+    private int outLen = 0;
+
+    private byte[] outputBuffer(int required) {
+        if(outBuf == null || outBuf.length < required) {
+            outBuf = new byte[Math.max(required, CHUNK_SIZE + CHUNK_SIZE / 2)];
+        }
+        return outBuf;
     }
 
-    private static void printBytes(byte[] bs, int offset, int len) {
-        System.err.print("[");
-        String sep = "";
-        for(int i=offset, end=offset+len;i<end;i++) {
-            System.err.print(sep);
-            System.err.print(((int)bs[i]) & 0xFF);
-            sep = ", ";
+    @Override
+    public int write(byte[] out, int offset, int len) throws IOException {
+        int left = len;
+        while(left > 0) {
+            int chunk = Math.min(left, CHUNK_SIZE);
+            int n = encoder.update(out, offset, chunk, outputBuffer(encoder.maxOutputSize(chunk)), 0);
+            if(n > 0) {
+                next().write(outBuf, 0, n);
+            }
+            offset += chunk;
+            left -= chunk;
         }
-        System.err.print("]");
+        return len;
     }
 
     @Override
     public int read(byte[] into, int offset, int len) throws IOException {
-        int read = this.nextInput.read(into, offset, len);
-        if(read == -1) {
-            return 0;
+        int read = 0;
+        while(read < len) {
+            if(outLen > 0) {
+                int n = Math.min(outLen, len - read);
+                System.arraycopy(outBuf, outOffset, into, offset + read, n);
+                outOffset += n;
+                outLen -= n;
+                read += n;
+                continue;
+            }
+            if(decoder.isFinished()) {
+                break;
+            }
+            if(inBuf == null) {
+                inBuf = new byte[CHUNK_SIZE];
+            }
+            int readFromNext = next().read(inBuf, 0, CHUNK_SIZE);
+            outOffset = 0;
+            if(readFromNext > 0) {
+                outLen = decoder.update(inBuf, 0, readFromNext, outputBuffer(decoder.maxOutputSize(readFromNext)), 0);
+            } else {
+                outLen = decoder.doFinal(outputBuffer(2), 0);
+            }
         }
         return read;
     }
 
     @Override
     public void flush() throws IOException {
-        this.nextOutput.flush();
-    }
-
-    public BIO push(BIO bio) {
-        BIO ret = super.push(bio);
-        this.nextOutput = new Base64.OutputStream(BIO.asOutputStream(this.nextBio));
-        this.nextInput = new Base64.InputStream(BIO.asInputStream(this.nextBio));
-        return ret;
+        int n = encoder.doFinal(outputBuffer(encoder.maxOutputSize(0)), 0);
+        if(n > 0) {
+            next().write(outBuf, 0, n);
+        }
     }
 
     public int getType() {
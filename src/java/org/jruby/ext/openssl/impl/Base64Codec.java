@@ -0,0 +1,353 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 Ola Bini <ola.bini@gmail.com>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven base64 that works on whole arrays: each step turns three
+ * bytes into four characters, or four characters back into three bytes,
+ * with lookups into a 64 entry alphabet and a 256 entry reverse table.
+ *
+ * {@link Encoder} and {@link Decoder} keep the partial quantum between
+ * calls, so data can be fed in chunks of any size. The encoder wraps lines
+ * with '\n' every <code>lineLength</code> characters, rounded down to a
+ * multiple of four, or not at all when it is 0. The decoder skips white
+ * space and stops at the first '=' or '-', the padding or the start of a
+ * PEM end line; any other character outside the alphabet is an error.
+ */
+public final class Base64Codec {
+    public final static int PEM_LINE_LENGTH = 64;
+
+    private final static byte[] ALPHABET = {
+        'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+        'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+        'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+        'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+    };
+
+    private final static byte INVALID = -1;
+    private final static byte SPACE = -2;
+    private final static byte END = -3;
+
+    private final static byte[] VALUES = new byte[256];
+
+    static {
+        for(int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = INVALID;
+        }
+        for(int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte)i;
+        }
+        VALUES[' '] = VALUES['\t'] = VALUES['\r'] = VALUES['\n'] = VALUES['\f'] = VALUES[0x0b] = SPACE;
+        VALUES['='] = VALUES['-'] = END;
+    }
+
+    private Base64Codec() {}
+
+    private static int lineLength(int lineLength) {
+        return lineLength > 0 ? Math.max(4, lineLength & ~3) : 0;
+    }
+
+    /**
+     * The exact number of characters, newlines included, that encoding
+     * <code>len</code> bytes in one go produces.
+     */
+    public static int encodedLength(int len, int lineLength) {
+        lineLength = lineLength(lineLength);
+        int chars = ((len + 2) / 3) * 4;
+        if(lineLength > 0) {
+            chars += (chars + lineLength - 1) / lineLength;
+        }
+        return chars;
+    }
+
+    public static byte[] encode(byte[] src, int lineLength) {
+        return encode(src, 0, src.length, lineLength);
+    }
+
+    public static byte[] encode(byte[] src, int off, int len, int lineLength) {
+        Encoder encoder = new Encoder(lineLength);
+        byte[] out = new byte[encodedLength(len, lineLength)];
+        int n = encoder.update(src, off, len, out, 0);
+        encoder.doFinal(out, n);
+        return out;
+    }
+
+    public static ByteBuffer encode(ByteBuffer src, int lineLength) {
+        byte[] out;
+        if(src.hasArray()) {
+            out = encode(src.array(), src.arrayOffset() + src.position(), src.remaining(), lineLength);
+            src.position(src.limit());
+        } else {
+            byte[] in = new byte[src.remaining()];
+            src.get(in);
+            out = encode(in, 0, in.length, lineLength);
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    public static byte[] decode(byte[] src) throws IOException {
+        return decode(src, 0, src.length);
+    }
+
+    public static byte[] decode(byte[] src, int off, int len) throws IOException {
+        Decoder decoder = new Decoder();
+        byte[] out = new byte[decoder.maxOutputSize(len)];
+        int n = decoder.update(src, off, len, out, 0);
+        n += decoder.doFinal(out, n);
+        return trim(out, n);
+    }
+
+    public static byte[] decode(CharSequence src) throws IOException {
+        Decoder decoder = new Decoder();
+        byte[] out = new byte[decoder.maxOutputSize(src.length())];
+        int n = decoder.update(src, 0, src.length(), out, 0);
+        n += decoder.doFinal(out, n);
+        return trim(out, n);
+    }
+
+    public static ByteBuffer decode(ByteBuffer src) throws IOException {
+        byte[] out;
+        if(src.hasArray()) {
+            out = decode(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            byte[] in = new byte[src.remaining()];
+            src.get(in);
+            out = decode(in, 0, in.length);
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    private static byte[] trim(byte[] out, int n) {
+        if(n == out.length) {
+            return out;
+        }
+        byte[] result = new byte[n];
+        System.arraycopy(out, 0, result, 0, n);
+        return result;
+    }
+
+    private static int put(int bits, byte[] out, int o) {
+        out[o] = ALPHABET[bits >>> 18];
+        out[o + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+        out[o + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+        out[o + 3] = ALPHABET[bits & 0x3f];
+        return o + 4;
+    }
+
+    public final static class Encoder {
+        private final int lineLength;
+        private final byte[] pending = new byte[3];
+        private int pendingLen = 0;
+        private int column = 0;
+
+        public Encoder(int lineLength) {
+            this.lineLength = Base64Codec.lineLength(lineLength);
+        }
+
+        /**
+         * An upper bound on what {@link #update} followed by
+         * {@link #doFinal} can write for <code>len</code> more bytes.
+         */
+        public int maxOutputSize(int len) {
+            int chars = ((pendingLen + len + 2) / 3) * 4;
+            return lineLength > 0 ? chars + chars / lineLength + 1 : chars;
+        }
+
+        public int update(byte[] in, int off, int len, byte[] out, int outOff) {
+            int end = off + len;
+            int o = outOff;
+            if(pendingLen > 0) {
+                while(pendingLen < 3 && off < end) {
+                    pending[pendingLen++] = in[off++];
+                }
+                if(pendingLen < 3) {
+                    return 0;
+                }
+                o = put((pending[0] & 0xff) << 16 | (pending[1] & 0xff) << 8 | (pending[2] & 0xff), out, o);
+                pendingLen = 0;
+                o = wrap(out, o);
+            }
+            while(end - off >= 3) {
+                o = put((in[off] & 0xff) << 16 | (in[off + 1] & 0xff) << 8 | (in[off + 2] & 0xff), out, o);
+                off += 3;
+                o = wrap(out, o);
+            }
+            while(off < end) {
+                pending[pendingLen++] = in[off++];
+            }
+            return o - outOff;
+        }
+
+        private int wrap(byte[] out, int o) {
+            if(lineLength > 0 && (column += 4) == lineLength) {
+                out[o++] = '\n';
+                column = 0;
+            }
+            return o;
+        }
+
+        /**
+         * Writes the padded last quantum and ends the last line.
+         */
+        public int doFinal(byte[] out, int outOff) {
+            int o = outOff;
+            if(pendingLen > 0) {
+                int bits = (pending[0] & 0xff) << 16;
+                if(pendingLen > 1) {
+                    bits |= (pending[1] & 0xff) << 8;
+                }
+                o = put(bits, out, o);
+                out[o - 1] = '=';
+                if(pendingLen == 1) {
+                    out[o - 2] = '=';
+                }
+                pendingLen = 0;
+                column += 4;
+            }
+            if(lineLength > 0 && column > 0) {
+                out[o++] = '\n';
+                column = 0;
+            }
+            return o - outOff;
+        }
+    }
+
+    public final static class Decoder {
+        private int bits = 0;
+        private int count = 0;
+        private boolean finished = false;
+
+        /**
+         * An upper bound on what {@link #update} followed by
+         * {@link #doFinal} can write for <code>len</code> more characters.
+         */
+        public int maxOutputSize(int len) {
+            return ((count + len) / 4) * 3 + 2;
+        }
+
+        /**
+         * True once the padding or a '-' has been seen; any further input
+         * is ignored.
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public int update(byte[] in, int off, int len, byte[] out, int outOff) throws IOException {
+            final byte[] values = VALUES;
+            int end = off + len;
+            int o = outOff;
+            while(off < end && !finished) {
+                if(count == 0) {
+                    while(end - off >= 4) {
+                        int c0 = values[in[off] & 0xff];
+                        int c1 = values[in[off + 1] & 0xff];
+                        int c2 = values[in[off + 2] & 0xff];
+                        int c3 = values[in[off + 3] & 0xff];
+                        if((c0 | c1 | c2 | c3) < 0) {
+                            break;
+                        }
+                        int b = c0 << 18 | c1 << 12 | c2 << 6 | c3;
+                        out[o] = (byte)(b >> 16);
+                        out[o + 1] = (byte)(b >> 8);
+                        out[o + 2] = (byte)b;
+                        o += 3;
+                        off += 4;
+                    }
+                    if(off == end) {
+                        break;
+                    }
+                }
+                o = step(values[in[off++] & 0xff], out, o);
+            }
+            return o - outOff;
+        }
+
+        public int update(CharSequence in, int off, int len, byte[] out, int outOff) throws IOException {
+            final byte[] values = VALUES;
+            int end = off + len;
+            int o = outOff;
+            while(off < end && !finished) {
+                char c = in.charAt(off++);
+                o = step(c < 256 ? values[c] : INVALID, out, o);
+            }
+            return o - outOff;
+        }
+
+        private int step(int value, byte[] out, int o) throws IOException {
+            if(value >= 0) {
+                bits = bits << 6 | value;
+                if(++count == 4) {
+                    out[o++] = (byte)(bits >> 16);
+                    out[o++] = (byte)(bits >> 8);
+                    out[o++] = (byte)bits;
+                    bits = 0;
+                    count = 0;
+                }
+                return o;
+            } else if(value == SPACE) {
+                return o;
+            } else if(value == END) {
+                return o + doFinal(out, o);
+            }
+            throw new IOException("invalid character in base64 data");
+        }
+
+        /**
+         * Writes what is left of an unpadded last quantum.
+         */
+        public int doFinal(byte[] out, int outOff) throws IOException {
+            if(finished) {
+                return 0;
+            }
+            finished = true;
+            int n = 0;
+            switch(count) {
+            case 1:
+                throw new IOException("truncated base64 data");
+            case 2:
+                out[outOff] = (byte)(bits >> 4);
+                n = 1;
+                break;
+            case 3:
+                out[outOff] = (byte)(bits >> 10);
+                out[outOff + 1] = (byte)(bits >> 2);
+                n = 2;
+                break;
+            }
+            bits = 0;
+            count = 0;
+            return n;
+        }
+    }
+}// Base64Codec
@@ -31,124 +31,113 @@ import java.io.IOException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 
 /**
+ * Encrypts what is written through it and decrypts what is read through
+ * it. Data moves in chunks of up to the buffer size, 64 KB by default,
+ * through one input and one output buffer that are reused for every call.
  *
  * @author <a href="mailto:ola.bini@gmail.com">Ola Bini</a>
  */
 public class CipherBIOFilter extends BIOFilter {
-    private Cipher cipher;
+    public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
-    private byte[] bufRead = new byte[4096];
-    private int fillLen = 0;
-    private int fillOffset = 0;
+    private Cipher cipher;
+    private final int bufferSize;
 
-    private byte[] tmpBuf = new byte[1024];
+    private byte[] inBuf;
+    private byte[] outBuf;
+    private int outOffset = 0;
+    private int outLen = 0;
 
     private boolean finalized = false;
 
     public CipherBIOFilter(Cipher cipher) {
+        this(cipher, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CipherBIOFilter(Cipher cipher, int bufferSize) {
         this.cipher = cipher;
+        this.bufferSize = Math.max(bufferSize, 64);
+    }
+
+    /**
+     * The output buffer, grown if the cipher may produce more than it
+     * holds; getOutputSize covers input the cipher is still holding back.
+     */
+    private byte[] outputBuffer(int inputLen) {
+        int required = cipher.getOutputSize(inputLen);
+        if(outBuf == null || outBuf.length < required) {
+            outBuf = new byte[Math.max(required, cipher.getOutputSize(bufferSize))];
+        }
+        return outBuf;
     }
 
     public void flush() throws IOException {
         try {
-            byte[] result = cipher.doFinal();
-            if(result == null) {
-                return;
+            int n = cipher.doFinal(outputBuffer(0), 0);
+            if(n > 0) {
+                next().write(outBuf, 0, n);
             }
-            next().write(result, 0, result.length);
         } catch(IllegalBlockSizeException e) {
             throw new PKCS7Exception(-1, -1, e.toString());
         } catch(BadPaddingException e) {
             throw new PKCS7Exception(-1, -1, e.toString());
+        } catch(ShortBufferException e) {
+            throw new PKCS7Exception(-1, -1, e.toString());
         }
     }
 
     public int read(byte[] into, int offset, int len) throws IOException {
         try {
             int read = 0;
-            if(fillLen > 0) {
-                read = Math.min(fillLen, len);
-                System.arraycopy(bufRead, fillOffset, into, offset, read);
-                fillOffset += read;
-                fillLen -= read;
-                if(fillLen == 0) {
-                    fillOffset = 0;
+            while(read < len) {
+                if(outLen > 0) {
+                    int n = Math.min(outLen, len - read);
+                    System.arraycopy(outBuf, outOffset, into, offset + read, n);
+                    outOffset += n;
+                    outLen -= n;
+                    read += n;
+                    continue;
                 }
-                if(read == len) {
-                    return read;
+                if(finalized) {
+                    break;
                 }
-            }
-            
-            int req = len - read;
-            int off = offset + read;
-            
-            if(finalized) {
-                return 0;
-            }
-
-            while(req > 0) {
-                int readFromNext = next().read(tmpBuf, 0, 1024);
+                if(inBuf == null) {
+                    inBuf = new byte[bufferSize];
+                }
+                int readFromNext = next().read(inBuf, 0, bufferSize);
+                outOffset = 0;
                 if(readFromNext > 0) {
-                    int required = cipher.getOutputSize(readFromNext);
-                    if(required > (bufRead.length - (fillOffset + fillLen))) {
-                        byte[] newBuf = new byte[required + fillOffset + fillLen];
-                        System.arraycopy(bufRead, fillOffset, newBuf, 0, fillLen);
-                        fillOffset = 0;
-                        bufRead = newBuf;
-                    }
-                    int outputted = cipher.update(tmpBuf, 0, readFromNext, bufRead, fillOffset + fillLen);
-                    fillLen += outputted;
-
-                    read = Math.min(fillLen, req);
-                    System.arraycopy(bufRead, fillOffset, into, off, read);
-                    fillOffset += read;
-                    fillLen -= read;
-                    if(fillLen == 0) {
-                        fillOffset = 0;
-                    }
-
-                    req -= read;
-                    off += read;
+                    outLen = cipher.update(inBuf, 0, readFromNext, outputBuffer(readFromNext), 0);
                 } else {
-                    int required = cipher.getOutputSize(0);
-                    if(required > (bufRead.length - (fillOffset + fillLen))) {
-                        byte[] newBuf = new byte[required + fillOffset + fillLen];
-                        System.arraycopy(bufRead, fillOffset, newBuf, 0, fillLen);
-                        fillOffset = 0;
-                        bufRead = newBuf;
-                    }
-                    int outputted = cipher.doFinal(bufRead, fillOffset + fillLen);
+                    outLen = cipher.doFinal(outputBuffer(0), 0);
                     finalized = true;
-                    fillLen += outputted;
-
-                    read = Math.min(fillLen, req);
-                    System.arraycopy(bufRead, fillOffset, into, off, read);
-                    fillOffset += read;
-                    fillLen -= read;
-                    if(fillLen == 0) {
-                        fillOffset = 0;
-                    }
-
-                    req -= read;
-                    return len-req;
                 }
             }
-
-            return len;
+            return read;
         } catch(Exception e) {
             throw new IllegalArgumentException(e);
         }
     }
 
     public int write(byte[] out, int offset, int len) throws IOException {
-        byte[] result = cipher.update(out, offset, len);
-        if(result == null) {
+        try {
+            int left = len;
+            while(left > 0) {
+                int chunk = Math.min(left, bufferSize);
+                int n = cipher.update(out, offset, chunk, outputBuffer(chunk), 0);
+                if(n > 0) {
+                    next().write(outBuf, 0, n);
+                }
+                offset += chunk;
+                left -= chunk;
+            }
             return len;
+        } catch(ShortBufferException e) {
+            throw new PKCS7Exception(-1, -1, e.toString());
         }
-        next().write(result, 0, result.length);
-        return len;
     }
 
     public int getType() {
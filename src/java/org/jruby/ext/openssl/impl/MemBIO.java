@@ -28,73 +28,146 @@
 package org.jruby.ext.openssl.impl;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
 
-/**
+import org.jruby.util.ByteList;
+
+/** c: BIO_s_mem
+ *
+ * Contents are kept in a list of fixed-size segments instead of one array
+ * that is doubled and copied as it grows. Segments are dropped as soon as
+ * they have been read through, and a BIO made over an existing array
+ * (BIO_new_mem_buf) reads that array in place.
  *
  * @author <a href="mailto:ola.bini@gmail.com">Ola Bini</a>
  */
 public class MemBIO extends BIO {
-    private byte[] buffer = new byte[1024];
-    private int wpointer = 0;
-    private int rpointer = 0;
-    private int slen = 0;
-    
-    private void realloc() {
-        byte[] newBuffer = new byte[buffer.length*2];
-        System.arraycopy(buffer, 0, newBuffer, 0, wpointer);
-        buffer = newBuffer;
+    public final static int SEGMENT_SIZE = 8192;
+
+    private static final class Segment {
+        final byte[] data;
+        final int origin;
+        int start;
+        int end;
+        // borrowed from the caller: never written into nor handed out
+        boolean sealed;
+
+        Segment(byte[] data, int start, int end, boolean sealed) {
+            this.data = data;
+            this.origin = start;
+            this.start = start;
+            this.end = end;
+            this.sealed = sealed;
+        }
     }
 
-    @Override
-    public int gets(byte[] in, int len) throws IOException {
-        if(rpointer == slen) {
-            return 0;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final boolean readOnly;
+    private long length = 0;
+
+    public MemBIO() {
+        this.readOnly = false;
+    }
+
+    /**
+     * A read-only BIO over arr, which is not copied; writes to it fail and
+     * reset rewinds it.
+     */
+    MemBIO(byte[] arr, int offset, int len) {
+        this.readOnly = true;
+        if(len > 0) {
+            segments.add(new Segment(arr, offset, offset + len, true));
+            length = len;
         }
+    }
 
-        int i=0;
-        for(;i<len && rpointer<slen; i++, rpointer++) {
-            in[i] = buffer[rpointer];
+    /**
+     * Number of bytes not yet read.
+     */
+    public long length() {
+        return length;
+    }
 
-            if(in[i] == '\n') {
-                i++; rpointer++;
+    private void consumed(Iterator<Segment> iter, Segment seg) {
+        if(!readOnly && seg.start == seg.end && (seg.sealed || seg.end == seg.data.length)) {
+            iter.remove();
+        }
+    }
+
+    @Override
+    public int gets(byte[] in, int len) throws IOException {
+        int i = 0;
+        for(Iterator<Segment> iter = segments.iterator(); iter.hasNext() && i < len;) {
+            Segment seg = iter.next();
+            boolean eol = false;
+            while(seg.start < seg.end && i < len) {
+                byte b = seg.data[seg.start++];
+                in[i++] = b;
+                if(b == '\n') {
+                    eol = true;
+                    break;
+                }
+            }
+            consumed(iter, seg);
+            if(eol) {
                 break;
             }
         }
-
+        length -= i;
         return i;
     }
 
     @Override
     public int read(byte[] in, int index, int len) throws IOException {
-        if(rpointer == slen) {
-            return 0;
+        int read = 0;
+        for(Iterator<Segment> iter = segments.iterator(); iter.hasNext() && read < len;) {
+            Segment seg = iter.next();
+            int n = Math.min(len - read, seg.end - seg.start);
+            System.arraycopy(seg.data, seg.start, in, index + read, n);
+            seg.start += n;
+            read += n;
+            consumed(iter, seg);
         }
-        int toRead = Math.min(len, slen-rpointer);
-        System.arraycopy(buffer, rpointer, in, index, toRead);
-        rpointer+=toRead;
-        return toRead;
+        length -= read;
+        return read;
     }
 
     @Override
     public int write(byte[] out, int offset, int len) throws IOException {
-        while(wpointer + len > buffer.length) {
-            realloc();
+        if(readOnly) {
+            throw new IOException("write to read only BIO");
         }
-
-        System.arraycopy(out, offset, buffer, wpointer, len);
-        wpointer += len;
-        slen += len;
-
+        int left = len;
+        while(left > 0) {
+            Segment tail = segments.isEmpty() ? null : segments.getLast();
+            if(tail == null || tail.sealed || tail.end == tail.data.length) {
+                tail = new Segment(new byte[SEGMENT_SIZE], 0, 0, false);
+                segments.add(tail);
+            }
+            int n = Math.min(left, tail.data.length - tail.end);
+            System.arraycopy(out, offset, tail.data, tail.end, n);
+            tail.end += n;
+            offset += n;
+            left -= n;
+        }
+        length += len;
         return len;
     }
 
     @Override
     public String toString() {
-        try {
-            return "<MemBIO w:" + wpointer + " r:" + rpointer + " buf:\"" + new String(buffer,rpointer,slen-rpointer) + "\" next=" + next() + ">";
-        } catch(Exception e) {}
-
-        return null;
+        StringBuilder preview = new StringBuilder();
+        for(Segment seg : segments) {
+            int n = Math.min(seg.end - seg.start, 64 - preview.length());
+            for(int i = 0; i < n; i++) {
+                preview.append((char)(seg.data[seg.start + i] & 0xFF));
+            }
+            if(preview.length() >= 64) {
+                break;
+            }
+        }
+        return "<MemBIO len:" + length + " segments:" + segments.size() + " buf:\"" + preview + (length > 64 ? "..." : "") + "\" next=" + next() + ">";
     }
 
     @Override
@@ -105,13 +178,68 @@ public class MemBIO extends BIO {
         return TYPE_MEM;
     }
 
+    /**
+     * The unread contents, copied once into an array of exactly their size.
+     */
     public byte[] getMemCopy() {
-        byte[] nbuf = new byte[slen];
-        System.arraycopy(buffer, 0, nbuf, 0, slen);
+        byte[] nbuf = new byte[(int)length];
+        int pos = 0;
+        for(Segment seg : segments) {
+            int n = seg.end - seg.start;
+            System.arraycopy(seg.data, seg.start, nbuf, pos, n);
+            pos += n;
+        }
         return nbuf;
     }
 
+    /**
+     * Hands the unread contents over as a ByteList and leaves the BIO
+     * read through. When they sit in a single segment of the BIO's own
+     * that segment is shared rather than copied; a borrowed array always
+     * is copied.
+     */
+    public ByteList toByteList() {
+        ByteList result = null;
+        for(Segment seg : segments) {
+            if(seg.start == seg.end) {
+                continue;
+            }
+            if(result != null || seg.sealed) {
+                result = null;
+                break;
+            }
+            result = new ByteList(seg.data, seg.start, seg.end - seg.start, false);
+        }
+        if(result == null) {
+            result = new ByteList(getMemCopy(), false);
+        }
+        if(readOnly) {
+            // as if read, so that reset still rewinds
+            for(Segment seg : segments) {
+                seg.start = seg.end;
+            }
+        } else {
+            segments.clear();
+        }
+        length = 0;
+        return result;
+    }
+
+    /** c: BIO_reset
+     *
+     * Rewinds a BIO made over an array and empties any other, as OpenSSL
+     * does for read-only and writable memory BIOs.
+     */
     public void reset() {
-        this.rpointer = 0;
+        if(readOnly) {
+            length = 0;
+            for(Segment seg : segments) {
+                seg.start = seg.origin;
+                length += seg.end - seg.start;
+            }
+        } else {
+            segments.clear();
+            length = 0;
+        }
     }
 }// MemBIO
@@ -70,13 +70,17 @@ public interface Mime {
             /* c: static strip_end
              */
             private int stripEnd(byte[] buffer, int start, int end) {
-                mimeDebug("stripEnd("+start+","+end+")");
+                if(Trace.MIME.enabled) {
+                    Trace.MIME.log("stripEnd("+start+","+end+")");
+                }
                 if(start == -1) {
                     return -1;
                 }
                 byte c;
                 for(int p = end-1; p >= start; p--) {
-                    mimeDebug("  p = "+p+", c = "+(char)buffer[p] + "(" + buffer[p] + ")");
+                    if(Trace.MIME.enabled) {
+                        Trace.MIME.log("  p = "+p+", c = "+(char)buffer[p] + "(" + buffer[p] + ")");
+                    }
                     c = buffer[p];
                     if(c == '"') {
                         if(p - 1 == start) {
@@ -105,12 +109,10 @@ public interface Mime {
                 }
             }
 
-            public void mimeDebug(String str) {
-                //                System.err.println(str);
-            }
-
             public List<MimeHeader> parseHeaders(BIO bio) throws IOException {
-                mimeDebug("\n!!!!!!!!!!!!!!!!!\n" + bio + "\n^^^^^^^^^^^^^^^^^^^^^^^^\n"); 
+                if(Trace.MIME.enabled) {
+                    Trace.MIME.log("parsing headers from " + bio);
+                }
                 int state = 0;
                 byte[] linebuf = new byte[MAX_SMLEN];
                 int len = 0;
@@ -135,15 +137,19 @@ public interface Mime {
                         case MIME_START:
                             if(c == ':') {
                                 state = MIME_TYPE;
-                                mimeDebug("creating new: " + q + ":" + p);
+                                if(Trace.MIME.enabled) {
+                                    Trace.MIME.log("creating new: " + q + ":" + p);
+                                }
                                 ntmp = stripEnds(linebuf, q, p);
                                 q = p + 1;
                             }
                             break;
                         case MIME_TYPE:
                             if(c == ';') {
-                                mimeDebug("Found End Value");
-                                mimeDebug("creating new: " + q + ":" + p);
+                                if(Trace.MIME.enabled) {
+                                    Trace.MIME.log("Found End Value");
+                                    Trace.MIME.log("creating new: " + q + ":" + p);
+                                }
                                 mhdr = new MimeHeader(ntmp, stripEnds(linebuf, q, p));
                                 headers.add(mhdr);
                                 ntmp = null;
@@ -163,7 +169,9 @@ public interface Mime {
                         case MIME_NAME:
                             if(c == '=') {
                                 state = MIME_VALUE;
-                                mimeDebug("creating new: " + q + ":" + p);
+                                if(Trace.MIME.enabled) {
+                                    Trace.MIME.log("creating new: " + q + ":" + p);
+                                }
                                 ntmp = stripEnds(linebuf, q, p);
                                 q = p + 1;
                             }
@@ -175,7 +183,9 @@ public interface Mime {
                                 ntmp = null;
                                 q = p + 1;
                             } else if(c == '"') {
-                                mimeDebug("Found Quote");
+                                if(Trace.MIME.enabled) {
+                                    Trace.MIME.log("Found Quote");
+                                }
                                 state = MIME_QUOTE;
                             } else if(c == '(') {
                                 saveState = state;
@@ -184,18 +194,24 @@ public interface Mime {
                             break;
                         case MIME_QUOTE:
                             if(c == '"') {
-                                mimeDebug("Found Match Quote");
+                                if(Trace.MIME.enabled) {
+                                    Trace.MIME.log("Found Match Quote");
+                                }
                                 state = MIME_VALUE;
                             }
                             break;
                         }
                     }
                     if(state == MIME_TYPE) {
-                        mimeDebug("creating new: " + q + ":" + p);
+                        if(Trace.MIME.enabled) {
+                            Trace.MIME.log("creating new: " + q + ":" + p);
+                        }
                         mhdr = new MimeHeader(ntmp, stripEnds(linebuf, q, p));
                         headers.add(mhdr);
                     } else if(state == MIME_VALUE) {
-                        mimeDebug("creating new: " + q + ":" + p);
+                        if(Trace.MIME.enabled) {
+                            Trace.MIME.log("creating new: " + q + ":" + p);
+                        }
                         mhdr.getParams().add(new MimeParam(ntmp, stripEnds(linebuf, q, p)));
                     }
                     if(p == 0) {
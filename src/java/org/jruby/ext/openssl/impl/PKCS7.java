@@ -39,9 +39,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -67,10 +72,13 @@ import org.bouncycastle.asn1.pkcs.SignerInfo;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.X509Name;
 import org.jruby.ext.openssl.OpenSSLReal;
+import org.jruby.ext.openssl.RandomService;
+import org.jruby.ext.openssl.WorkerPool;
 import org.jruby.ext.openssl.x509store.Name;
 import org.jruby.ext.openssl.x509store.Store;
 import org.jruby.ext.openssl.x509store.StoreContext;
 import org.jruby.ext.openssl.x509store.X509AuxCertificate;
+import org.jruby.ext.openssl.x509store.X509Error;
 import org.jruby.ext.openssl.x509store.X509Utils;
 
 /** c: PKCS7
@@ -89,6 +97,9 @@ public class PKCS7 {
 
     private PKCS7Data data;
 
+    // digests the detached content was read through, see SMIME.readPKCS7Streaming
+    private BIO contentDigests;
+
     public Object ctrl(int cmd, Object v, Object ignored) {
         return this.data.ctrl(cmd, v, ignored);
     }
@@ -105,8 +116,12 @@ public class PKCS7 {
         return isSigned() && getDetached() != 0;
     }
 
-    private static void printDER(String moniker, DEREncodable object) {
-        System.err.println(moniker + " " + object + "{" + object.getClass().getName() + "}");
+    public void setContentDigests(BIO contentDigests) {
+        this.contentDigests = contentDigests;
+    }
+
+    public BIO getContentDigests() {
+        return contentDigests;
     }
 
     private void initiateWith(Integer nid, DEREncodable content) {
@@ -242,7 +257,7 @@ public class PKCS7 {
         MessageDigest mdc = null;
 
         for(;;) {
-            if(btmp == null || (btmp = bio.findType(BIO.TYPE_MD)) == null) {
+            if(btmp == null || (btmp = btmp.findType(BIO.TYPE_MD)) == null) {
                 throw new PKCS7Exception(F_PKCS7_SIGNATUREVERIFY, R_UNABLE_TO_FIND_MESSAGE_DIGEST);
             }
 
@@ -294,8 +309,9 @@ public class PKCS7 {
         } catch(NotVerifiedPKCS7Exception e) {
             throw e;
         } catch(Exception e) {
-            System.err.println("Other exception");
-            e.printStackTrace();
+            if(Trace.PKCS7.enabled) {
+                Trace.PKCS7.log("signature verification failed", e);
+            }
             throw new NotVerifiedPKCS7Exception();
         }
     }
@@ -303,92 +319,79 @@ public class PKCS7 {
     /* c: PKCS7_verify
      *
      */
-    public void verify(Collection<X509AuxCertificate> certs, Store store, BIO indata, BIO out, int flags) {
+    public void verify(Collection<X509AuxCertificate> certs, final Store store, BIO indata, BIO out, final int flags) {
         if(!isSigned()) {
             throw new PKCS7Exception(F_PKCS7_VERIFY, R_WRONG_CONTENT_TYPE);
         }
 
-        if(getDetached() != 0 && indata == null) {
+        if(getDetached() != 0 && indata == null && contentDigests == null) {
             throw new PKCS7Exception(F_PKCS7_VERIFY, R_NO_CONTENT);
         }
 
-        List<SignerInfoWithPkey> sinfos = new ArrayList<SignerInfoWithPkey>(getSignerInfo());
+        final List<SignerInfoWithPkey> sinfos = new ArrayList<SignerInfoWithPkey>(getSignerInfo());
         if(sinfos == null || sinfos.size() == 0) {
             throw new PKCS7Exception(F_PKCS7_VERIFY, R_NO_SIGNATURES_ON_DATA);
         }
 
-        List<X509AuxCertificate> signers = getSigners(certs, sinfos, flags);
+        final List<X509AuxCertificate> signers = getSigners(certs, sinfos, flags);
         if(signers == null) {
             throw new NotVerifiedPKCS7Exception();
         }
 
         /* Now verify the certificates */
         if((flags & NOVERIFY) == 0) {
-            for(X509AuxCertificate signer : signers) {
-                StoreContext cert_ctx = new StoreContext();
-                if((flags & NOCHAIN) == 0) {
-                    if(cert_ctx.init(store, signer, new ArrayList<X509AuxCertificate>(getSign().getCert())) == 0) {
-                        throw new PKCS7Exception(F_PKCS7_VERIFY, -1);
+            forEachSigner(signers.size(), new WorkerPool.Slice() {
+                public void run(int from, int to) {
+                    for(int i = from; i < to; i++) {
+                        verifySignerChain(signers.get(i), store, flags);
                     }
-                    cert_ctx.setPurpose(X509Utils.X509_PURPOSE_SMIME_SIGN);
-                } else if(cert_ctx.init(store, signer, null) == 0) {
-                    throw new PKCS7Exception(F_PKCS7_VERIFY, -1);
-                }
-                if((flags & NOCRL) == 0) {
-                    cert_ctx.setCRLs((List<X509CRL>)getSign().getCrl());
                 }
+            });
+        }
+
+        BIO tmpin = indata;
+        final BIO p7bio;
+        if(indata == null && contentDigests != null) {
+            // the content has been digested already, as it was read
+            p7bio = contentDigests;
+        } else {
+            p7bio = dataInit(tmpin);
+            BIO tmpout = null;
+            if((flags & TEXT) != 0) {
+                tmpout = BIO.mem();
+            } else {
+                tmpout = out;
+            }
+            
+            byte[] buf = new byte[4096];
+            for(;;) {
                 try {
-                    int i = cert_ctx.verifyCertificate();
-                    int j = 0;
+                    int i = p7bio.read(buf, 0, buf.length);
                     if(i <= 0) {
-                        j = cert_ctx.getError();
+                        break;
                     }
-                    cert_ctx.cleanup();
-                    if(i <= 0) {
-                        throw new PKCS7Exception(F_PKCS7_VERIFY, R_CERTIFICATE_VERIFY_ERROR, "Verify error:" + X509Utils.verifyCertificateErrorString(j));
+                    if(tmpout != null) {
+                        tmpout.write(buf, 0, i);
                     }
-                } catch(PKCS7Exception e) {
-                    throw e;
-                } catch(Exception e) {
-                    throw new PKCS7Exception(F_PKCS7_VERIFY, R_CERTIFICATE_VERIFY_ERROR, e);
+                } catch(IOException e) {
+                    throw new PKCS7Exception(F_PKCS7_VERIFY, -1, e);
                 }
             }
-        }
 
-        BIO tmpin = indata;
-        BIO p7bio = dataInit(tmpin);
-        BIO tmpout = null;
-        if((flags & TEXT) != 0) {
-            tmpout = BIO.mem();
-        } else {
-            tmpout = out;
-        }
-        
-        byte[] buf = new byte[4096];
-        for(;;) {
-            try {
-                int i = p7bio.read(buf, 0, buf.length);
-                if(i <= 0) {
-                    break;
-                }
-                if(tmpout != null) {
-                    tmpout.write(buf, 0, i);
-                }
-            } catch(IOException e) {
-                throw new PKCS7Exception(F_PKCS7_VERIFY, -1, e);
+            if((flags & TEXT) != 0) {
+                new SMIME(Mime.DEFAULT).text(tmpout, out);
             }
         }
 
-        if((flags & TEXT) != 0) {
-            new SMIME(Mime.DEFAULT).text(tmpout, out);
-        }
-
         if((flags & NOSIGS) == 0) {
-            for(int i=0; i<sinfos.size(); i++) {
-                SignerInfoWithPkey si = sinfos.get(i);
-                X509AuxCertificate signer = signers.get(i);
-                signatureVerify(p7bio, si, signer);
-            }
+            // each signer clones the digest for its algorithm, computed once
+            forEachSigner(sinfos.size(), new WorkerPool.Slice() {
+                public void run(int from, int to) {
+                    for(int i = from; i < to; i++) {
+                        signatureVerify(p7bio, sinfos.get(i), signers.get(i));
+                    }
+                }
+            });
         }
 
         if(tmpin == indata) {
@@ -398,6 +401,60 @@ public class PKCS7 {
         }
     }
 
+    private void verifySignerChain(X509AuxCertificate signer, Store store, int flags) {
+        StoreContext cert_ctx = new StoreContext();
+        if((flags & NOCHAIN) == 0) {
+            if(cert_ctx.init(store, signer, new ArrayList<X509AuxCertificate>(getSign().getCert())) == 0) {
+                throw new PKCS7Exception(F_PKCS7_VERIFY, -1);
+            }
+            cert_ctx.setPurpose(X509Utils.X509_PURPOSE_SMIME_SIGN);
+        } else if(cert_ctx.init(store, signer, null) == 0) {
+            throw new PKCS7Exception(F_PKCS7_VERIFY, -1);
+        }
+        if((flags & NOCRL) == 0) {
+            cert_ctx.setCRLs((List<X509CRL>)getSign().getCrl());
+        }
+        try {
+            int i = cert_ctx.verifyCertificate();
+            int j = 0;
+            if(i <= 0) {
+                j = cert_ctx.getError();
+            }
+            cert_ctx.cleanup();
+            if(i <= 0) {
+                throw new PKCS7Exception(F_PKCS7_VERIFY, R_CERTIFICATE_VERIFY_ERROR, "Verify error:" + X509Utils.verifyCertificateErrorString(j));
+            }
+        } catch(PKCS7Exception e) {
+            throw e;
+        } catch(Exception e) {
+            throw new PKCS7Exception(F_PKCS7_VERIFY, R_CERTIFICATE_VERIFY_ERROR, e);
+        } finally {
+            if(WorkerPool.isWorkerThread()) {
+                // nothing reads the error queue of a pool thread
+                X509Error.clearErrors();
+            }
+        }
+    }
+
+    /**
+     * Runs slice over the signers, one signer per slice on the worker pool
+     * when there are several. Slices are contiguous and their failures are
+     * collected in order, so the first signer to fail is the one reported,
+     * as when verifying one after another.
+     */
+    private static void forEachSigner(int count, WorkerPool.Slice slice) {
+        try {
+            WorkerPool.forEachSlice(count, 1, slice);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new PKCS7Exception(F_PKCS7_VERIFY, -1, e.getCause());
+        } catch(InterruptedException e) {
+            throw new PKCS7Exception(F_PKCS7_VERIFY, -1, e);
+        }
+    }
+
     /* c: PKCS7_sign
      *
      */
@@ -432,6 +489,12 @@ public class PKCS7 {
             return p7;
         }
 
+        // marking it detached up front sends the content to a null sink
+        // instead of collecting it only to be thrown away in dataFinal
+        if((flags & DETACHED) != 0) {
+            p7.setDetached(1);
+        }
+
         BIO p7bio = p7.dataInit(null);
 
         try {
@@ -440,10 +503,6 @@ public class PKCS7 {
             throw new PKCS7Exception(F_PKCS7_SIGN, R_PKCS7_DATAFINAL_ERROR, e.toString());
         }
 
-        if((flags & DETACHED) != 0) {
-            p7.setDetached(1);
-        }
-
         p7.dataFinal(p7bio);
 
         return p7;
@@ -453,6 +512,13 @@ public class PKCS7 {
      *
      */
     public static PKCS7 encrypt(Collection<X509AuxCertificate> certs, byte[] in, Cipher cipher, int flags) {
+        return encrypt(certs, BIO.memBuf(in), cipher, flags);
+    }
+
+    /* c: PKCS7_encrypt
+     *
+     */
+    public static PKCS7 encrypt(Collection<X509AuxCertificate> certs, BIO in, Cipher cipher, int flags) {
         PKCS7 p7 = new PKCS7();
 
         p7.setType(ASN1Registry.NID_pkcs7_enveloped);
@@ -466,7 +532,7 @@ public class PKCS7 {
 
             BIO p7bio = p7.dataInit(null);
 
-            BIO.memBuf(in).crlfCopy(p7bio, flags);
+            in.crlfCopy(p7bio, flags);
             p7bio.flush();
             p7.dataFinal(p7bio);
 
@@ -601,6 +667,17 @@ public class PKCS7 {
     private final static int EVP_MAX_IV_LENGTH = 16;
     private final static int EVP_MAX_BLOCK_LENGTH = 32;
 
+    // recipients per slice when wrapping the content key in parallel
+    private final static int WRAP_SLICE_SIZE = 8;
+
+    // key wrapping Ciphers by public key algorithm, kept per thread
+    private final static ThreadLocal<Map<String, Cipher>> WRAP_CIPHERS = new ThreadLocal<Map<String, Cipher>>() {
+        @Override
+        protected Map<String, Cipher> initialValue() {
+            return new HashMap<String, Cipher>();
+        }
+    };
+
     private final static byte[] PEM_STRING_PKCS7_START = "-----BEGIN PKCS7-----".getBytes();
 
     /** c: PEM_read_bio_PKCS7
@@ -843,7 +920,12 @@ public class PKCS7 {
         }
 
         if(mdSk != null) {
+            // one digest per algorithm, shared by every signer that uses it
+            Set<DERObjectIdentifier> added = new HashSet<DERObjectIdentifier>();
             for(AlgorithmIdentifier ai : mdSk) {
+                if(!added.add(ai.getObjectId())) {
+                    continue;
+                }
                 if((out = bioAddDigest(out, ai)) == null) {
                     return null;
                 }
@@ -855,7 +937,6 @@ public class PKCS7 {
         }
 
         if(evpCipher != null) {
-            byte[] tmp;
             String algorithm = evpCipher.getAlgorithm();
             btmp = BIO.cipherFilter(evpCipher);
 
@@ -866,24 +947,28 @@ public class PKCS7 {
                 algoBase = algoBase.split("/")[0];
             }
 
+            SecretKey key = null;
             try {
                 KeyGenerator gen = KeyGenerator.getInstance(algoBase, OpenSSLReal.PROVIDER);
-                gen.init(new SecureRandom());
-                SecretKey key = gen.generateKey();
+                gen.init(RandomService.getSecureRandom());
+                key = gen.generateKey();
                 klen = ((SecretKeySpec)key).getEncoded().length*8;
-                evpCipher.init(Cipher.ENCRYPT_MODE, key);
-
-                if(null != rsk) {
-                    for(RecipInfo ri : rsk) {
-                        PublicKey pkey = ri.getCert().getPublicKey();
-                        Cipher cipher = Cipher.getInstance(pkey.getAlgorithm(), OpenSSLReal.PROVIDER);
-                        cipher.init(Cipher.ENCRYPT_MODE, pkey);
-                        tmp = cipher.doFinal(((SecretKeySpec)key).getEncoded());
-                        ri.setEncKey(new DEROctetString(tmp));
-                    }
-                }
+                evpCipher.init(Cipher.ENCRYPT_MODE, key, RandomService.getSecureRandom());
             } catch(Exception e) {
-                e.printStackTrace();
+                if(Trace.PKCS7.enabled) {
+                    Trace.PKCS7.log("content key setup failed", e);
+                }
+            }
+
+            if(key != null && null != rsk) {
+                // a recipient left without an encrypted key could never decrypt
+                try {
+                    wrapContentKey(rsk, ((SecretKeySpec)key).getEncoded());
+                } catch(PKCS7Exception e) {
+                    throw e;
+                } catch(Exception e) {
+                    throw new PKCS7Exception(F_PKCS7_DATAINIT, R_ERROR_SETTING_CIPHER, e);
+                }
             }
 
             DERObjectIdentifier encAlgo = ASN1Registry.sym2oid(algorithm);
@@ -931,6 +1016,40 @@ public class PKCS7 {
         return out;
     }
 
+    /**
+     * Encrypts the content key to each recipient's public key. Long
+     * recipient lists are split across the worker pool; each thread keeps
+     * one Cipher per key algorithm across calls and re-initializes it for
+     * every recipient, with padding drawn from its RandomService generator.
+     */
+    private static void wrapContentKey(Collection<RecipInfo> rsk, final byte[] key) throws Exception {
+        final RecipInfo[] recipients = rsk.toArray(new RecipInfo[rsk.size()]);
+        try {
+            WorkerPool.forEachSlice(recipients.length, WRAP_SLICE_SIZE, new WorkerPool.Slice() {
+                public void run(int from, int to) throws Exception {
+                    Map<String, Cipher> ciphers = WRAP_CIPHERS.get();
+                    // this thread's generator, so slices do not contend for the JCE default
+                    SecureRandom random = RandomService.getSecureRandom();
+                    for(int i = from; i < to; i++) {
+                        PublicKey pkey = recipients[i].getCert().getPublicKey();
+                        Cipher cipher = ciphers.get(pkey.getAlgorithm());
+                        if(cipher == null) {
+                            cipher = Cipher.getInstance(pkey.getAlgorithm(), OpenSSLReal.PROVIDER);
+                            ciphers.put(pkey.getAlgorithm(), cipher);
+                        }
+                        cipher.init(Cipher.ENCRYPT_MODE, pkey, random);
+                        recipients[i].setEncKey(new DEROctetString(cipher.doFinal(key)));
+                    }
+                }
+            });
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        }
+    }
+
     /** c: static PKCS7_find_digest
      *
      */
@@ -160,8 +160,10 @@ public class SMIME {
 
     /* c: static multi_split
      *
+     * When firstPart is given the first part is written to it as it is
+     * read, instead of to a new memory BIO.
      */
-    private List<BIO> multiSplit(BIO bio, byte[] bound) throws IOException {
+    private List<BIO> multiSplit(BIO bio, byte[] bound, BIO firstPart) throws IOException {
         List<BIO> parts = new ArrayList<BIO>();
         byte[] linebuf = new byte[MAX_SMLEN];
         int blen = bound.length;
@@ -191,8 +193,12 @@ public class SMIME {
                     if(bpart != null) {
                         parts.add(bpart);
                     }
-                    bpart = BIO.mem();
-                    bpart.setMemEofReturn(0);
+                    if(part == 1 && firstPart != null) {
+                        bpart = firstPart;
+                    } else {
+                        bpart = BIO.mem();
+                        bpart.setMemEofReturn(0);
+                    }
                 } else if(eol) {
                     bpart.write(NEWLINE, 0, 2);
                 }
@@ -214,6 +220,56 @@ public class SMIME {
             bcont[0] = null;
         }
 
+        MimeHeader hdr = readContentType(bio);
+        if("multipart/signed".equals(hdr.getValue())) {
+            List<BIO> parts = multiSplit(bio, boundary(hdr), null);
+            if(parts == null || parts.size() != 2) {
+                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BODY_FAILURE);
+            }
+
+            PKCS7 p7 = readSignature(parts.get(1));
+
+            if(bcont != null && bcont.length>0) {
+                bcont[0] = parts.get(0);
+            }
+
+            return p7;
+        }
+
+        return readPKCS7Opaque(bio, hdr);
+    }
+
+    /**
+     * Reads an S/MIME message without holding a multipart/signed body in
+     * memory: the signed part goes through message digests as it is read,
+     * and on to content when that is not null, and only the signature part
+     * is kept. The digests are those named by the micalg parameter
+     * and SHA-1; {@link PKCS7#verify} checks the signatures against them
+     * when it is given no content.
+     */
+    public PKCS7 readPKCS7Streaming(BIO bio, BIO content) throws IOException {
+        MimeHeader hdr = readContentType(bio);
+        if("multipart/signed".equals(hdr.getValue())) {
+            BIO digests = contentDigests(mime.findParam(hdr, "micalg"));
+            digests.push(content == null ? BIO.nullSink() : content);
+
+            List<BIO> parts = multiSplit(bio, boundary(hdr), digests);
+            if(parts == null || parts.size() != 2) {
+                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BODY_FAILURE);
+            }
+            if(content != null) {
+                content.flush();
+            }
+
+            PKCS7 p7 = readSignature(parts.get(1));
+            p7.setContentDigests(digests);
+            return p7;
+        }
+
+        return readPKCS7Opaque(bio, hdr);
+    }
+
+    private MimeHeader readContentType(BIO bio) throws IOException {
         List<MimeHeader> headers = mime.parseHeaders(bio);
         if(headers == null) {
             throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_MIME_PARSE_ERROR);
@@ -223,54 +279,88 @@ public class SMIME {
         if(hdr == null || hdr.getValue() == null) {
             throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_CONTENT_TYPE);
         }
+        if(Trace.SMIME.enabled) {
+            Trace.SMIME.log("reading " + hdr.getValue() + " from " + bio);
+        }
+        return hdr;
+    }
+
+    private byte[] boundary(MimeHeader hdr) {
+        MimeParam prm = mime.findParam(hdr, "boundary");
+        if(prm == null || prm.getParamValue() == null) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BOUNDARY);
+        }
 
-        if("multipart/signed".equals(hdr.getValue())) {
-            MimeParam prm = mime.findParam(hdr, "boundary");
-            if(prm == null || prm.getParamValue() == null) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BOUNDARY);
+        try {
+            return prm.getParamValue().getBytes("ISO8859-1");
+        } catch(Exception e) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BOUNDARY);
+        }
+    }
+
+    /**
+     * A chain of digest BIOs for each algorithm in micalg, such as "sha1"
+     * or "sha-256", followed by SHA-1 as a fallback for signers that do not
+     * match micalg; names that are not known are skipped.
+     */
+    private BIO contentDigests(MimeParam micalg) {
+        List<String> names = new ArrayList<String>();
+        if(micalg != null && micalg.getParamValue() != null) {
+            for(String name : micalg.getParamValue().split(",")) {
+                name = name.trim().toLowerCase().replace("sha-", "sha");
+                if(ASN1Registry.sym2oid(name) != null && !names.contains(name)) {
+                    names.add(name);
+                }
             }
+        }
+        if(!names.contains("sha1")) {
+            names.add("sha1");
+        }
 
-            byte[] boundary = null;
+        BIO digests = null;
+        for(String name : names) {
             try {
-                boundary = prm.getParamValue().getBytes("ISO8859-1");
+                BIO md = BIO.mdFilter(EVP.getDigest(ASN1Registry.sym2oid(name)));
+                if(digests == null) {
+                    digests = md;
+                } else {
+                    digests.push(md);
+                }
             } catch(Exception e) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BOUNDARY);
-            }
-
-            List<BIO> parts = multiSplit(bio, boundary);
-            if(parts == null || parts.size() != 2) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_MULTIPART_BODY_FAILURE);
+                if(Trace.SMIME.enabled) {
+                    Trace.SMIME.log("no digest for micalg " + name, e);
+                }
             }
+        }
+        if(digests == null) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_UNKNOWN_DIGEST_TYPE);
+        }
+        return digests;
+    }
 
-            BIO p7in = parts.get(1);
-
-            headers = mime.parseHeaders(p7in);
-
-            if(headers == null) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_MIME_SIG_PARSE_ERROR);
-            }
+    private PKCS7 readSignature(BIO p7in) throws IOException {
+        List<MimeHeader> headers = mime.parseHeaders(p7in);
 
-            hdr = mime.findHeader(headers, "content-type");
-            if(hdr == null || hdr.getValue() == null) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_SIG_CONTENT_TYPE);
-            }
+        if(headers == null) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_MIME_SIG_PARSE_ERROR);
+        }
 
-            if(!"application/x-pkcs7-signature".equals(hdr.getValue()) &&
-               !"application/pkcs7-signature".equals(hdr.getValue()) &&
-               !"application/x-pkcs7-mime".equals(hdr.getValue()) &&
-               !"application/pkcs7-mime".equals(hdr.getValue())) {
-                throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_SIG_INVALID_MIME_TYPE, "type: " + hdr.getValue());
-            }
+        MimeHeader hdr = mime.findHeader(headers, "content-type");
+        if(hdr == null || hdr.getValue() == null) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_NO_SIG_CONTENT_TYPE);
+        }
 
-            PKCS7 p7 = readPKCS7Base64(p7in);
+        if(!"application/x-pkcs7-signature".equals(hdr.getValue()) &&
+           !"application/pkcs7-signature".equals(hdr.getValue()) &&
+           !"application/x-pkcs7-mime".equals(hdr.getValue()) &&
+           !"application/pkcs7-mime".equals(hdr.getValue())) {
+            throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_SIG_INVALID_MIME_TYPE, "type: " + hdr.getValue());
+        }
 
-            if(bcont != null && bcont.length>0) {
-                bcont[0] = parts.get(0);
-            }
+        return readPKCS7Base64(p7in);
+    }
 
-            return p7;
-        }
-        
+    private PKCS7 readPKCS7Opaque(BIO bio, MimeHeader hdr) throws IOException {
         if(!"application/x-pkcs7-mime".equals(hdr.getValue()) &&
            !"application/pkcs7-mime".equals(hdr.getValue())) {
             throw new PKCS7Exception(PKCS7.F_SMIME_READ_PKCS7, PKCS7.R_INVALID_MIME_TYPE, "type: " + hdr.getValue());
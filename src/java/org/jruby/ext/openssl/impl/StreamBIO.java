@@ -0,0 +1,138 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 Ola Bini <ola.bini@gmail.com>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** c: BIO_s_file
+ *
+ * A source/sink BIO over a Java stream, so that content can be read from
+ * or written to files and Ruby IO objects in chunks instead of being
+ * collected in a MemBIO first.
+ */
+public class StreamBIO extends BIO {
+    public final static int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    public StreamBIO(InputStream in) {
+        this(in, null);
+    }
+
+    public StreamBIO(OutputStream out) {
+        this(null, out);
+    }
+
+    public StreamBIO(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    private boolean fill() throws IOException {
+        if(position < limit) {
+            return true;
+        }
+        if(in == null) {
+            return false;
+        }
+        if(buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while(read == 0);
+        position = 0;
+        limit = read < 0 ? 0 : read;
+        return limit > 0;
+    }
+
+    @Override
+    public int gets(byte[] into, int len) throws IOException {
+        int i = 0;
+        while(i < len && fill()) {
+            byte b = buffer[position++];
+            into[i++] = b;
+            if(b == '\n') {
+                break;
+            }
+        }
+        return i;
+    }
+
+    @Override
+    public int read(byte[] into, int offset, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(position < limit) {
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, into, offset, n);
+            position += n;
+            return n;
+        }
+        if(in == null) {
+            return 0;
+        }
+        int read;
+        do {
+            read = in.read(into, offset, len);
+        } while(read == 0);
+        return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int len) throws IOException {
+        if(out == null) {
+            throw new IOException("BIO is not writable");
+        }
+        out.write(data, offset, len);
+        return len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void setMemEofReturn(int value) {
+    }
+
+    public int getType() {
+        return TYPE_FILE;
+    }
+}// StreamBIO
@@ -0,0 +1,93 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2008 Ola Bini <ola.bini@gmail.com>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.impl;
+
+import java.io.PrintStream;
+
+/**
+ * Debug tracing for the PKCS7/S/MIME implementation. Each area has its own
+ * channel, switched on with the <code>jruby.openssl.trace</code> system
+ * property, a comma separated list of channel names or <code>all</code>:
+ *
+ * <pre>-Djruby.openssl.trace=mime,pkcs7</pre>
+ *
+ * Call sites test {@link #enabled} before building a message, so a
+ * disabled channel costs one field read and nothing is concatenated.
+ */
+public final class Trace {
+    public final static String PROPERTY = "jruby.openssl.trace";
+
+    public final static Trace MIME = new Trace("mime");
+    public final static Trace SMIME = new Trace("smime");
+    public final static Trace PKCS7 = new Trace("pkcs7");
+    public final static Trace BIO = new Trace("bio");
+
+    public final String name;
+    public final boolean enabled;
+
+    private Trace(String name) {
+        this.name = name;
+        this.enabled = isEnabled(name);
+    }
+
+    private static boolean isEnabled(String name) {
+        String setting;
+        try {
+            setting = System.getProperty(PROPERTY);
+        } catch(SecurityException e) {
+            return false;
+        }
+        if(setting == null) {
+            return false;
+        }
+        for(String channel : setting.split(",")) {
+            channel = channel.trim();
+            if(channel.equalsIgnoreCase(name) || channel.equalsIgnoreCase("all")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PrintStream out() {
+        return System.err;
+    }
+
+    public void log(String message) {
+        if(enabled) {
+            out().println("[jopenssl:" + name + "] " + message);
+        }
+    }
+
+    public void log(String message, Throwable t) {
+        if(enabled) {
+            log(message + ": " + t);
+            t.printStackTrace(out());
+        }
+    }
+}// Trace
@@ -0,0 +1,357 @@
+/***** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2006 Ola Bini <ola@ologix.com>
+ * 
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ ***** END LICENSE BLOCK *****/
+package org.jruby.ext.openssl.x509store;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jruby.ext.openssl.DERWalker;
+import org.jruby.ext.openssl.OpenSSLReal;
+
+/**
+ * A revocation index for one X509CRL, built once from its DER and shared by
+ * every StoreContext that checks against the same CRL object until the CRL
+ * passes its nextUpdate. Revoked serials are packed back to back into one
+ * sorted byte array and found by binary search, so a CRL with hundreds of
+ * thousands of entries costs a few bytes per serial instead of a provider
+ * X509CRLEntry each, and the CRL signature is checked once per issuer key
+ * rather than once per verification.
+ *
+ * Indexes are held weakly by CRL identity and go away with the CRL.
+ */
+public class CRLIndex {
+    private static final Map<Key, CRLIndex> INDEXES = new HashMap<Key, CRLIndex>();
+    private static final ReferenceQueue<X509CRL> QUEUE = new ReferenceQueue<X509CRL>();
+
+    private static final class Key extends WeakReference<X509CRL> {
+        private final int hash;
+
+        Key(X509CRL crl, ReferenceQueue<X509CRL> queue) {
+            super(crl, queue);
+            this.hash = System.identityHashCode(crl);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            X509CRL crl = get();
+            return crl != null && crl == ((Key) other).get();
+        }
+    }
+
+    /**
+     * The shared index for crl, built on first use, or null once the CRL is
+     * past its nextUpdate; expired CRLs are rejected by the time check anyway
+     * and are not worth keeping an index for. Also null if the CRL cannot be
+     * indexed, in which case callers go through the provider.
+     */
+    public static CRLIndex forCRL(X509CRL crl) {
+        Key key = new Key(crl, null);
+        synchronized (INDEXES) {
+            expunge();
+            CRLIndex index = INDEXES.get(key);
+            if (index != null) {
+                if (index.isCurrent()) {
+                    return index;
+                }
+                INDEXES.remove(key);
+                return null;
+            }
+        }
+        CRLIndex index;
+        try {
+            index = new CRLIndex(crl);
+        } catch (CRLException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+        if (!index.isCurrent()) {
+            return null;
+        }
+        synchronized (INDEXES) {
+            CRLIndex existing = INDEXES.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            INDEXES.put(new Key(crl, QUEUE), index);
+        }
+        return index;
+    }
+
+    /**
+     * Number of live indexes.
+     */
+    public static int getIndexCount() {
+        synchronized (INDEXES) {
+            expunge();
+            return INDEXES.size();
+        }
+    }
+
+    /**
+     * Revoked serials held by all live indexes.
+     */
+    public static long getTotalSerials() {
+        long total = 0;
+        synchronized (INDEXES) {
+            expunge();
+            for (CRLIndex index : INDEXES.values()) {
+                total += index.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Approximate bytes held by all live indexes.
+     */
+    public static long getTotalFootprint() {
+        long total = 0;
+        synchronized (INDEXES) {
+            expunge();
+            for (CRLIndex index : INDEXES.values()) {
+                total += index.getFootprint();
+            }
+        }
+        return total;
+    }
+
+    public static void clear() {
+        synchronized (INDEXES) {
+            INDEXES.clear();
+            expunge();
+        }
+    }
+
+    private static void expunge() {
+        Object ref;
+        while ((ref = QUEUE.poll()) != null) {
+            INDEXES.remove(ref);
+        }
+    }
+
+    private final Date nextUpdate;
+    private final boolean criticalExtensions;
+    private final byte[] serials;
+    private final int[] offsets;
+    private volatile PublicKey verifiedBy;
+
+    private CRLIndex(X509CRL crl) throws CRLException, IOException {
+        this.nextUpdate = crl.getNextUpdate();
+        Set critical = crl.getCriticalExtensionOIDs();
+        this.criticalExtensions = critical != null && !critical.isEmpty();
+
+        final byte[] tbs = crl.getTBSCertList();
+        int[][] found = findSerials(tbs);
+        final int[] starts = found[0];
+        final int[] lengths = found[1];
+        int count = starts.length;
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return compareSerials(tbs, starts[a], lengths[a], tbs, starts[b], lengths[b]);
+                }
+            });
+
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += lengths[i];
+        }
+        this.serials = new byte[total];
+        this.offsets = new int[count + 1];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            int ix = order[i];
+            offsets[i] = pos;
+            System.arraycopy(tbs, starts[ix], serials, pos, lengths[ix]);
+            pos += lengths[ix];
+        }
+        offsets[count] = pos;
+    }
+
+    public boolean isCurrent() {
+        return nextUpdate == null || new Date().before(nextUpdate);
+    }
+
+    public boolean hasCriticalExtensions() {
+        return criticalExtensions;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Approximate bytes held by this index.
+     */
+    public long getFootprint() {
+        return serials.length + 4L * offsets.length + 64;
+    }
+
+    public boolean isRevoked(BigInteger serial) {
+        byte[] key = serial.toByteArray();
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = offsets[mid];
+            int cmp = compareSerials(serials, start, offsets[mid + 1] - start, key, 0, key.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the CRL signature against key, remembering a success so that
+     * later checks with the same key are free.
+     */
+    public boolean verify(final X509CRL crl, final PublicKey key) {
+        if (key.equals(verifiedBy)) {
+            return true;
+        }
+        final boolean[] result = new boolean[1];
+        OpenSSLReal.doWithBCProvider(new Runnable() {
+                public void run() {
+                    try {
+                        crl.verify(key);
+                        result[0] = true;
+                    } catch(java.security.GeneralSecurityException e) {
+                        result[0] = false;
+                    }
+                }
+            });
+        if (result[0]) {
+            verifiedBy = key;
+        }
+        return result[0];
+    }
+
+    /**
+     * Orders minimal two's complement serials by length, then bytes; any
+     * consistent order does for the binary search.
+     */
+    private static int compareSerials(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength) {
+        if (aLength != bLength) {
+            return aLength < bLength ? -1 : 1;
+        }
+        for (int i = 0; i < aLength; i++) {
+            int x = a[aStart + i] & 0xFF;
+            int y = b[bStart + i] & 0xFF;
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Walks TBSCertList down to revokedCertificates and returns the
+     * positions and lengths of the userCertificate serials in tbs.
+     */
+    private static int[][] findSerials(byte[] tbs) throws IOException {
+        DERWalker fields = new DERWalker(tbs).enter(0x30);
+        if (fields.peekTag() == 0x02) {
+            fields.skip();                        // version
+        }
+        fields.skip();                            // signature
+        fields.skip();                            // issuer
+        fields.skip();                            // thisUpdate
+        if (fields.peekTag() == 0x17 || fields.peekTag() == 0x18) {
+            fields.skip();                        // nextUpdate
+        }
+        if (fields.peekTag() != 0x30) {
+            return new int[][] { new int[0], new int[0] };
+        }
+
+        DERWalker list = fields.enter(0x30);
+        int capacity = Math.max(16, (list.getEnd() - list.getPosition()) / 32);
+        int[] starts = new int[capacity];
+        int[] lengths = new int[capacity];
+        int count = 0;
+        while (list.hasNext()) {
+            DERWalker serial = list.enter(0x30).enter(0x02);
+            int start = serial.getPosition();
+            int serialEnd = serial.getEnd();
+            // drop redundant leading bytes so serials match BigInteger.toByteArray
+            while (serialEnd - start > 1
+                   && ((tbs[start] == 0 && tbs[start + 1] >= 0) || (tbs[start] == -1 && tbs[start + 1] < 0))) {
+                start++;
+            }
+            if (count == starts.length) {
+                starts = grow(starts);
+                lengths = grow(lengths);
+            }
+            starts[count] = start;
+            lengths[count] = serialEnd - start;
+            count++;
+        }
+        int[] s = new int[count];
+        int[] l = new int[count];
+        System.arraycopy(starts, 0, s, 0, count);
+        System.arraycopy(lengths, 0, l, 0, count);
+        return new int[][] { s, l };
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}// CRLIndex
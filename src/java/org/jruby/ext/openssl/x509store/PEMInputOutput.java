@@ -39,7 +39,6 @@ import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 
 import java.security.KeyPair;
-import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.security.cert.X509CRL;
 import java.security.cert.CertificateEncodingException;
@@ -57,6 +56,8 @@ import javax.crypto.spec.DHParameterSpec;
 
 import org.jruby.ext.openssl.OpenSSLReal;
 import org.jruby.ext.openssl.PKCS10CertificationRequestExt;
+import org.jruby.ext.openssl.RandomService;
+import org.jruby.ext.openssl.impl.Base64Codec;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1OutputStream;
@@ -77,7 +78,6 @@ import org.bouncycastle.asn1.x509.RSAPublicKeyStructure;
 import org.bouncycastle.crypto.PBEParametersGenerator;
 import org.bouncycastle.crypto.generators.OpenSSLPBEParametersGenerator;
 import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
 import org.bouncycastle.cms.CMSSignedData;
 
@@ -410,7 +410,7 @@ public class PEMInputOutput {
         Matcher m = DH_PARAM_PATTERN.matcher(buf.toString());
         if (m.find()) {
             try {
-                byte[] decoded = Base64.decode(m.group(DH_PARAM_GROUP));
+                byte[] decoded = Base64Codec.decode(m.group(DH_PARAM_GROUP));
                 ASN1InputStream aIn = new ASN1InputStream(new ByteArrayInputStream(decoded));
                 ASN1Sequence seq = (ASN1Sequence)aIn.readObject();
                 BigInteger p = ((DERInteger)seq.getObjectAt(0)).getValue();
@@ -557,15 +557,6 @@ public class PEMInputOutput {
         out.flush();
     }
 
-    private static SecureRandom random;
-    static {
-        try {
-            random = SecureRandom.getInstance("SHA1PRNG");
-        } catch(Exception e) {
-            random = null;
-        }
-    }
-
     public static void writeDSAPrivateKey(Writer _out, DSAPrivateKey obj, String algo, char[] f) throws IOException {
         BufferedWriter out = makeBuffered(_out);
         ByteArrayInputStream    bIn = new ByteArrayInputStream(obj.getEncoded());
@@ -594,7 +585,7 @@ public class PEMInputOutput {
         if(algo != null && f != null) {
             byte[] salt = new byte[8];
             byte[] encData = null;
-            random.nextBytes(salt);
+            RandomService.nextBytes(salt);
             OpenSSLPBEParametersGenerator pGen = new OpenSSLPBEParametersGenerator();
             pGen.init(PBEParametersGenerator.PKCS5PasswordToBytes(f), salt);
             SecretKey secretKey = null;
@@ -661,7 +652,7 @@ public class PEMInputOutput {
         if(algo != null && f != null) {
             byte[] salt = new byte[8];
             byte[] encData = null;
-            random.nextBytes(salt);
+            RandomService.nextBytes(salt);
             OpenSSLPBEParametersGenerator pGen = new OpenSSLPBEParametersGenerator();
             pGen.init(PBEParametersGenerator.PKCS5PasswordToBytes(f), salt);
             SecretKey secretKey = null;
@@ -731,21 +722,53 @@ public class PEMInputOutput {
     }
     
     private static byte[] readBytes(BufferedReader in, String endMarker) throws IOException {
-        String          line;
-        StringBuffer    buf = new StringBuffer();
-  
+        PEMBody body = new PEMBody();
+        String line;
+
         while ((line = in.readLine()) != null) {
             if (line.indexOf(endMarker) != -1) {
                 break;
             }
-            buf.append(line.trim());
+            body.append(line);
         }
 
         if (line == null) {
             throw new IOException(endMarker + " not found");
         }
 
-        return Base64.decode(buf.toString());
+        return body.getBytes();
+    }
+
+    /**
+     * Decodes the base64 lines of a PEM body as they are read, into one
+     * buffer that grows by doubling.
+     */
+    private static class PEMBody {
+        private final Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+        private byte[] bytes = new byte[1024];
+        private int length = 0;
+
+        public void append(String line) throws IOException {
+            int required = length + decoder.maxOutputSize(line.length());
+            if (required > bytes.length) {
+                byte[] grown = new byte[Math.max(required, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            length += decoder.update(line, 0, line.length(), bytes, length);
+        }
+
+        public byte[] getBytes() throws IOException {
+            if (length + 2 > bytes.length) {
+                byte[] grown = new byte[length + 2];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            length += decoder.doFinal(bytes, length);
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, 0, result, 0, length);
+            return result;
+        }
     }
 
     /**
@@ -826,7 +849,7 @@ public class PEMInputOutput {
         boolean         isEncrypted = false;
         String          line = null;
         String          dekInfo = null;
-        StringBuffer    buf = new StringBuffer();
+        PEMBody         body = new PEMBody();
 
         while ((line = _in.readLine()) != null) {
             if (line.startsWith("Proc-Type: 4,ENCRYPTED")) {
@@ -836,7 +859,7 @@ public class PEMInputOutput {
             } else if (line.indexOf(endMarker) != -1) {
                 break;
             } else {
-                buf.append(line.trim());
+                body.append(line);
             }
         }
         byte[]  keyBytes = null;
@@ -850,7 +873,7 @@ public class PEMInputOutput {
                 Key     sKey = getKey(passwd,alg, 24, iv);
                 Cipher  c = Cipher.getInstance("DESede/CBC/PKCS5Padding", OpenSSLReal.PROVIDER);
                 c.init(Cipher.DECRYPT_MODE, sKey, new IvParameterSpec(iv));
-                keyBytes = c.doFinal(Base64.decode(buf.toString()));
+                keyBytes = c.doFinal(body.getBytes());
             } else if (encoding.equals("DES-CBC")) {
                 String  alg = "DES";
                 byte[]  iv = Hex.decode(tknz.nextToken());
@@ -859,12 +882,12 @@ public class PEMInputOutput {
                                                "DES/CBC/PKCS5Padding", OpenSSLReal.PROVIDER);
 
                 c.init(Cipher.DECRYPT_MODE, sKey, new IvParameterSpec(iv));
-                keyBytes = c.doFinal(Base64.decode(buf.toString()));
+                keyBytes = c.doFinal(body.getBytes());
             } else {
                 throw new IOException("unknown encryption with private key");
             }
         } else {
-            keyBytes = Base64.decode(buf.toString());
+            keyBytes = body.getBytes();
         }
 
         KeySpec                 pubSpec, privSpec;
@@ -923,25 +946,7 @@ public class PEMInputOutput {
      * @throws IOException if an I/O error occured
      */
     private static X509Certificate readCertificate(BufferedReader in,String  endMarker) throws IOException {
-        String          line;
-        StringBuffer    buf = new StringBuffer();
-  
-        while ((line = in.readLine()) != null)
-        {
-            if (line.indexOf(endMarker) != -1)
-            {
-                break;
-            }
-            buf.append(line.trim());
-        }
-
-        if (line == null)
-        {
-            throw new IOException(endMarker + " not found");
-        }
-
-        ByteArrayInputStream    bIn = new ByteArrayInputStream(
-                                                Base64.decode(buf.toString()));
+        ByteArrayInputStream bIn = new ByteArrayInputStream(readBytes(in, endMarker));
 
         try
         {
@@ -957,21 +962,7 @@ public class PEMInputOutput {
     }
 
     private static X509AuxCertificate readAuxCertificate(BufferedReader in,String  endMarker) throws IOException {
-        String          line;
-        StringBuffer    buf = new StringBuffer();
-  
-        while ((line = in.readLine()) != null) {
-            if (line.indexOf(endMarker) != -1) {
-                break;
-            }
-            buf.append(line.trim());
-        }
-
-        if (line == null) {
-            throw new IOException(endMarker + " not found");
-        }
-
-        ASN1InputStream try1 = new ASN1InputStream(Base64.decode(buf.toString()));
+        ASN1InputStream try1 = new ASN1InputStream(readBytes(in, endMarker));
         ByteArrayInputStream bIn = new ByteArrayInputStream(((DERObject)try1.readObject()).getEncoded());
 
         try {
@@ -1020,25 +1011,7 @@ public class PEMInputOutput {
      * @throws IOException if an I/O error occured
      */
     private static X509CRL readCRL(BufferedReader in, String  endMarker) throws IOException {
-        String          line;
-        StringBuffer    buf = new StringBuffer();
-  
-        while ((line = in.readLine()) != null)
-        {
-            if (line.indexOf(endMarker) != -1)
-            {
-                break;
-            }
-            buf.append(line.trim());
-        }
-
-        if (line == null)
-        {
-            throw new IOException(endMarker + " not found");
-        }
-
-        ByteArrayInputStream    bIn = new ByteArrayInputStream(
-                                                Base64.decode(buf.toString()));
+        ByteArrayInputStream bIn = new ByteArrayInputStream(readBytes(in, endMarker));
 
         try
         {
@@ -1060,26 +1033,11 @@ public class PEMInputOutput {
      * @throws IOException if an I/O error occured
      */
     private static PKCS10CertificationRequestExt readCertificateRequest(BufferedReader in, String  endMarker) throws IOException {
-        String          line;
-        StringBuffer    buf = new StringBuffer();
-  
-        while ((line = in.readLine()) != null)
-        {
-            if (line.indexOf(endMarker) != -1)
-            {
-                break;
-            }
-            buf.append(line.trim());
-        }
-
-        if (line == null)
-        {
-            throw new IOException(endMarker + " not found");
-        }
+        byte[] bytes = readBytes(in, endMarker);
 
         try
         {
-            return new PKCS10CertificationRequestExt(Base64.decode(buf.toString()));
+            return new PKCS10CertificationRequestExt(bytes);
         }
         catch (Exception e)
         {
@@ -1096,7 +1054,7 @@ public class PEMInputOutput {
 
     private static void writeEncoded(BufferedWriter out, byte[] bytes) throws IOException {
         char[]  buf = new char[64];
-        bytes = Base64.encode(bytes);
+        bytes = Base64Codec.encode(bytes, 0);
         for (int i = 0; i < bytes.length; i += buf.length) {
             int index = 0;
             
@@ -1120,26 +1078,7 @@ public class PEMInputOutput {
      * @throws IOException if an I/O error occured
      */
     private static CMSSignedData readPKCS7(BufferedReader in, char[] p, String  endMarker) throws IOException {
-        String                                  line;
-        StringBuffer                        buf = new StringBuffer();
-        ByteArrayOutputStream    bOut = new ByteArrayOutputStream();
-  
-        while ((line = in.readLine()) != null) {
-            if (line.indexOf(endMarker) != -1) {
-                break;
-            }
-            line = line.trim();
-            buf.append(line.trim());
-            Base64.decode(buf.substring(0, (buf.length() / 4) * 4), bOut);
-            buf.delete(0, (buf.length() / 4) * 4);
-        }
-        if (buf.length() != 0) {
-            throw new RuntimeException("base64 data appears to be truncated");
-        }
-        if (line == null) {
-            throw new IOException(endMarker + " not found");
-        }
-        ByteArrayInputStream    bIn = new ByteArrayInputStream(bOut.toByteArray());
+        ByteArrayInputStream bIn = new ByteArrayInputStream(readBytes(in, endMarker));
         try {
             ASN1InputStream aIn = new ASN1InputStream(bIn);
             return new CMSSignedData(ContentInfo.getInstance(aIn.readObject()));
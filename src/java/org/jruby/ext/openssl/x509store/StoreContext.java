@@ -141,23 +141,25 @@ public class StoreContext {
             return 1;
         }
 
-        int idx = X509Object.indexBySubject(ctx.objs,X509Utils.X509_LU_X509, xn);
-        if(idx == -1) {
-            return 0;
-        }
-
-        /* Look through all matching certificates for a suitable issuer */
-        for(int i = idx; i < ctx.objs.size(); i++) {
-            X509Object pobj = (X509Object)ctx.objs.get(i);
-            if(pobj.type() != X509Utils.X509_LU_X509) {
-                return 0;
-            }
-            if(!xn.isEqual((((Certificate)pobj).x509).getSubjectX500Principal())) {
+        synchronized(X509Utils.CRYPTO_LOCK_X509_STORE) {
+            int idx = X509Object.indexBySubject(ctx.objs,X509Utils.X509_LU_X509, xn);
+            if(idx == -1) {
                 return 0;
             }
-            if(this.checkIssued.call(this,x,((Certificate)pobj).x509) != 0) {
-                issuer[0] = ((Certificate)pobj).x509;
-                return 1;
+
+            /* Look through all matching certificates for a suitable issuer */
+            for(int i = idx; i < ctx.objs.size(); i++) {
+                X509Object pobj = (X509Object)ctx.objs.get(i);
+                if(pobj.type() != X509Utils.X509_LU_X509) {
+                    return 0;
+                }
+                if(!xn.isEqual((((Certificate)pobj).x509).getSubjectX500Principal())) {
+                    return 0;
+                }
+                if(this.checkIssued.call(this,x,((Certificate)pobj).x509) != 0) {
+                    issuer[0] = ((Certificate)pobj).x509;
+                    return 1;
+                }
             }
         }
         return 0;
@@ -606,7 +608,10 @@ public class StoreContext {
     public int getBySubject(int type,Name name,X509Object[] ret) throws Exception { 
         Store c = ctx;
 
-        X509Object tmp = X509Object.retrieveBySubject(c.objs,type,name);
+        X509Object tmp;
+        synchronized(X509Utils.CRYPTO_LOCK_X509_STORE) {
+            tmp = X509Object.retrieveBySubject(c.objs,type,name);
+        }
         if(tmp == null) {
             for(int i=currentMethod; i<c.certificateMethods.size(); i++) {
                 Lookup lu = (Lookup)c.certificateMethods.get(i);
@@ -1286,16 +1291,21 @@ public class StoreContext {
                         }
                     } else {
                         final boolean[] result = new boolean[1];
-                        OpenSSLReal.doWithBCProvider(new Runnable() {
-                                public void run() {
-                                    try {
-                                        crl.verify(ikey);
-                                        result[0] = true;
-                                    } catch(java.security.GeneralSecurityException e) {
-                                        result[0] = false;
+                        CRLIndex index = CRLIndex.forCRL(crl);
+                        if(index != null) {
+                            result[0] = index.verify(crl, ikey);
+                        } else {
+                            OpenSSLReal.doWithBCProvider(new Runnable() {
+                                    public void run() {
+                                        try {
+                                            crl.verify(ikey);
+                                            result[0] = true;
+                                        } catch(java.security.GeneralSecurityException e) {
+                                            result[0] = false;
+                                        }
                                     }
-                                }
-                            });
+                                });
+                        }
 
                         if(!result[0]) {
                             ctx.error= X509Utils.V_ERR_CRL_SIGNATURE_FAILURE;
@@ -1324,7 +1334,11 @@ public class StoreContext {
                 X509CRL crl = (X509CRL)a2;
                 X509AuxCertificate x = (X509AuxCertificate)a3;
                 int ok;
-                if(crl.getRevokedCertificate(x.getSerialNumber()) != null) {
+                CRLIndex index = CRLIndex.forCRL(crl);
+                boolean revoked = index != null
+                    ? index.isRevoked(x.getSerialNumber())
+                    : crl.getRevokedCertificate(x.getSerialNumber()) != null;
+                if(revoked) {
                     ctx.error = X509Utils.V_ERR_CERT_REVOKED;
                     ok = ctx.verifyCallback.call(new Integer(0), ctx);
                     if(ok == 0) {
@@ -1335,7 +1349,10 @@ public class StoreContext {
                     return 1;
                 }
 
-                if(crl.getCriticalExtensionOIDs() != null && crl.getCriticalExtensionOIDs().size()>0) {
+                boolean critical = index != null
+                    ? index.hasCriticalExtensions()
+                    : crl.getCriticalExtensionOIDs() != null && crl.getCriticalExtensionOIDs().size()>0;
+                if(critical) {
                     ctx.error = X509Utils.V_ERR_UNHANDLED_CRITICAL_CRL_EXTENSION;
                     ok = ctx.verifyCallback.call(new Integer(0), ctx);
                     if(ok == 0) {
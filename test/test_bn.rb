@@ -0,0 +1,54 @@
+if defined?(JRUBY_VERSION)
+  require "java"
+  base = File.dirname(__FILE__)
+  $CLASSPATH << File.join(base, '..', 'pkg', 'classes')
+  $CLASSPATH << File.join(base, '..', 'lib', 'bcprov-jdk14-139.jar')
+end
+
+begin
+  require "openssl"
+rescue LoadError
+end
+
+require "test/unit"
+
+class TestBN < Test::Unit::TestCase
+  def assert_safe_prime(p, bits, add = nil, rem = nil)
+    assert_equal bits, p.num_bits
+    assert p.prime?, "#{p} is not prime"
+    assert OpenSSL::BN.new(((p.to_i - 1) / 2).to_s).prime?, "#{p} is not a safe prime"
+    assert_equal rem, p.to_i % add if add
+  end
+
+  # 64 bits and up with a small add go through the sieve
+  def test_generate_safe_prime_sieved
+    assert_safe_prime OpenSSL::BN.generate_prime(256, true), 256
+    assert_safe_prime OpenSSL::BN.generate_prime(128, true, 12, 11), 128, 12, 11
+    assert_safe_prime OpenSSL::BN.generate_prime(96, true, 24, 23), 96, 24, 23
+  end
+
+  # large enough to be searched on several processors at once
+  def test_generate_safe_prime_parallel
+    assert_safe_prime OpenSSL::BN.generate_prime(512, true), 512
+  end
+
+  # fewer than 64 bits, or an add too large to sieve with, fall back
+  def test_generate_safe_prime_fallback
+    assert_safe_prime OpenSSL::BN.generate_prime(48, true), 48
+    assert_safe_prime OpenSSL::BN.generate_prime(48, true, 12, 11), 48, 12, 11
+    add = 1 << 21
+    assert_safe_prime OpenSSL::BN.generate_prime(128, true, add, 3), 128, add, 3
+  end
+
+  def test_generate_prime_with_add_and_rem
+    p = OpenSSL::BN.generate_prime(128, false, 10, 3)
+    assert_equal 128, p.num_bits
+    assert p.prime?
+    assert_equal 3, p.to_i % 10
+
+    p = OpenSSL::BN.generate_prime(40, false, 1 << 22, 1)
+    assert_equal 40, p.num_bits
+    assert p.prime?
+    assert_equal 1, p.to_i % (1 << 22)
+  end
+end
@@ -38,5 +38,112 @@ module PKCS7Test
       read = bio.gets(arr, 10)
       assert_equal 0, read
     end
+
+    def test_stream_bio_gets_and_read
+      input = java.io.ByteArrayInputStream.new("abc\nfoo\nbar".to_java_bytes)
+      bio = BIO::from_input_stream(input)
+      arr = Java::byte[20].new
+      read = bio.gets(arr, 10)
+      assert_equal 4, read
+      assert_equal "abc\n".to_java_bytes.to_a, arr.to_a[0...read]
+
+      read = bio.read(arr, 0, 20)
+      assert_equal 7, read
+      assert_equal "foo\nbar".to_java_bytes.to_a, arr.to_a[0...read]
+
+      assert_equal 0, bio.read(arr, 0, 20)
+      assert_equal 0, bio.gets(arr, 10)
+    end
+
+    def test_stream_bio_write
+      output = java.io.ByteArrayOutputStream.new
+      bio = BIO::to_output_stream(output)
+      bio.write("hello".to_java_bytes, 1, 3)
+      bio.flush
+      assert_equal "ell", String.from_java_bytes(output.to_byte_array)
+    end
+
+    def test_mem_bio_across_segments
+      bio = BIO::mem
+      data = ("x" * 10000 + "\n") * 3
+      bio.write(data.to_java_bytes, 0, data.length)
+      arr = Java::byte[20000].new
+      assert_equal 10001, bio.gets(arr, 20000)
+      assert_equal 20000, bio.read(arr, 0, 20000)
+      assert_equal 2, bio.length
+      assert_equal "x\n", String.from_java_bytes(bio.mem_copy)
+      bio.reset
+      assert_equal 0, bio.read(arr, 0, 10)
+    end
+
+    def test_mem_buf_reset_rewinds
+      bio = BIO::mem_buf("abcdef".to_java_bytes, 1, 4)
+      arr = Java::byte[10].new
+      assert_equal 4, bio.read(arr, 0, 10)
+      assert_equal "bcde".to_java_bytes.to_a, arr.to_a[0...4]
+      bio.reset
+      assert_equal 4, bio.read(arr, 0, 10)
+    end
+
+    def test_mem_buf_is_read_only
+      bytes = "abcdef".to_java_bytes
+      bio = BIO::mem_buf(bytes, 1, 4)
+      assert_raises(NativeException) { bio.write("x".to_java_bytes, 0, 1) }
+      assert_equal 4, bio.length
+
+      list = bio.to_byte_list
+      bytes[1] = 120
+      assert_equal "bcde", list.to_s
+      assert_equal 0, bio.length
+
+      bio.reset
+      assert_equal 4, bio.length
+      assert_equal "xcde", bio.to_byte_list.to_s
+    end
+
+    def test_cipher_filter_round_trip_in_small_chunks
+      key = javax.crypto.spec.SecretKeySpec.new(("k" * 16).to_java_bytes, "AES")
+      iv = javax.crypto.spec.IvParameterSpec.new(("i" * 16).to_java_bytes)
+      data = "0123456789abcdef" * 1000 + "tail"
+
+      encrypt = javax.crypto.Cipher.getInstance("AES/CBC/PKCS5Padding")
+      encrypt.init(javax.crypto.Cipher::ENCRYPT_MODE, key, iv)
+      sink = BIO::mem
+      bio = BIO::cipher_filter(encrypt, 100)
+      bio.push(sink)
+      bio.write(data.to_java_bytes, 0, data.length)
+      bio.flush
+      assert_equal (data.length / 16 + 1) * 16, sink.length
+
+      decrypt = javax.crypto.Cipher.getInstance("AES/CBC/PKCS5Padding")
+      decrypt.init(javax.crypto.Cipher::DECRYPT_MODE, key, iv)
+      bio = BIO::cipher_filter(decrypt, 100)
+      bio.push(BIO::mem_buf(sink.mem_copy))
+      arr = Java::byte[data.length + 333].new
+      read = 0
+      while (n = bio.read(arr, read, 333)) > 0
+        read += n
+      end
+      assert_equal data.length, read
+      assert_equal data, String.from_java_bytes(arr)[0, read]
+    end
+
+    def test_base64_filter_round_trip
+      data = (0...200).map { |i| (i * 7 % 256).chr }.join
+      sink = BIO::mem
+      bio = BIO::base64_filter(sink)
+      bio.write(data.to_java_bytes, 0, 100)
+      bio.write(data.to_java_bytes, 100, 100)
+      bio.flush
+      encoded = String.from_java_bytes(sink.mem_copy)
+      assert_equal [data].pack("m").delete("\n"), encoded.delete("\n")
+      assert_equal [64, 64, 64, 64, 12], encoded.split("\n").map { |l| l.length }
+
+      bio = BIO::base64_filter(BIO::mem_buf((encoded.gsub("\n", "\r\n") + "-----END-----\n").to_java_bytes))
+      arr = Java::byte[300].new
+      assert_equal 200, bio.read(arr, 0, 300)
+      assert_equal data, String.from_java_bytes(arr)[0, 200]
+      assert_equal 0, bio.read(arr, 0, 300)
+    end
   end
 end
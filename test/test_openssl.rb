@@ -31,4 +31,6 @@ protect_require 'openssl/test_x509store'
 protect_require 'test_cipher'
 protect_require 'test_java'
 protect_require 'test_integration'
+protect_require 'test_bn'
 protect_require 'test_pkey'
+protect_require 'test_random'
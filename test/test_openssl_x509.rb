@@ -31,4 +31,184 @@ END
 
     assert_equal "24:D1:34:18:66:91:2A:63:76:AA:19:CE:17:20:56:56:5E:10:8F:AA", key_id.value
   end
+
+  def test_parsed_certificate_fields
+    pem = File.read(File.join(File.dirname(__FILE__), "fixture", "cacert.pem"))
+    cert = OpenSSL::X509::Certificate.new(pem)
+    assert_match(/CN=CA/, cert.subject.to_s)
+    assert_equal cert.subject.to_s, cert.issuer.to_s
+    assert cert.not_after.utc?
+    assert cert.not_before < cert.not_after
+    assert_kind_of Integer, cert.serial
+    assert_kind_of OpenSSL::PKey::RSA, cert.public_key
+    assert_equal 4, cert.extensions.size
+    exts = {}
+    cert.extensions.each { |e| exts[e.oid] = e }
+    assert_equal "CA:TRUE", exts["basicConstraints"].value
+    assert exts["basicConstraints"].critical?
+    assert_equal "Key Cert Sign, cRLSign", exts["keyUsage"].value
+    assert_equal "E0:39:2D:49:6A:09:2F:C2:4A:FD:21:B0:1D:72:56:BB:C4:FD:27:CD", exts["subjectKeyIdentifier"].value
+    assert_equal "keyid:E0:39:2D:49:6A:09:2F:C2:4A:FD:21:B0:1D:72:56:BB:C4:FD:27:CD", exts["authorityKeyIdentifier"].value
+    assert_equal pem.split("\n")[1..-2].join.unpack("m").first, cert.to_der
+  end
+
+  def test_resign_parsed_certificate
+    pem = File.read(File.join(File.dirname(__FILE__), "fixture", "cacert.pem"))
+    cert = OpenSSL::X509::Certificate.new(pem)
+    key = OpenSSL::PKey::RSA.new(512)
+    subject = cert.subject.to_s
+    not_after = cert.not_after
+    cert.public_key = key.public_key
+    cert.sign(key, OpenSSL::Digest::SHA1.new)
+    assert cert.verify(key)
+    copy = OpenSSL::X509::Certificate.new(cert.to_der)
+    assert_equal subject, copy.subject.to_s
+    assert_equal not_after, copy.not_after
+    assert_equal 4, copy.extensions.size
+  end
+
+  def test_certificate_cache
+    pem = File.read(File.join(File.dirname(__FILE__), "fixture", "cacert.pem"))
+    der = OpenSSL::X509::Certificate.new(pem).to_der
+    first = OpenSSL::X509::Certificate.new(der)
+    hits = OpenSSL::X509::Certificate.cache_stats["hits"]
+    second = OpenSSL::X509::Certificate.new(der)
+    assert_equal hits + 1, OpenSSL::X509::Certificate.cache_stats["hits"]
+    assert_not_same first, second
+    assert_equal first.public_key.to_der, second.public_key.to_der
+    second.not_after = Time.now
+    assert_not_equal first.not_after, second.not_after
+  end
+
+  def test_name_as_hash_key
+    a = OpenSSL::X509::Name.parse("/C=US/O=Example/CN=a.example.com")
+    b = OpenSSL::X509::Name.new(a.to_der)
+    groups = { a => [:first] }
+    assert groups.has_key?(b)
+    assert a.eql?(b)
+    assert_equal a.hash, b.hash
+    assert_equal a.to_der, b.to_der
+
+    der = b.to_der
+    b.add_entry("OU", "Unit")
+    assert_not_equal der, b.to_der
+    assert !a.eql?(b)
+    assert_equal "/C=US/O=Example/CN=a.example.com/OU=Unit", b.to_s
+  end
+
+  def test_object_id_names_and_register
+    cn = OpenSSL::ASN1::ObjectId.new("2.5.4.3")
+    assert_equal "cn", cn.sn.downcase
+    assert_equal "commonname", cn.ln.downcase
+    assert OpenSSL::ASN1::ObjectId.register("1.3.6.1.4.1.99999.1", "jrTst", "jrubyOpensslTestObject")
+    oid = OpenSSL::ASN1::ObjectId.new("1.3.6.1.4.1.99999.1")
+    assert_equal "jrtst", oid.sn.downcase
+    assert_equal "jrubyopenssltestobject", oid.ln.downcase
+    assert_equal "cn", cn.sn.downcase
+  end
+
+  def test_asn1_decode_all_and_traverse
+    require 'stringio'
+    der = "\x02\x01\x01" + "\x30\x06\x02\x01\x02\x04\x01\x41"
+    all = OpenSSL::ASN1.decode_all(der)
+    assert_equal 2, all.size
+    assert_equal 1, all[0].value.to_i
+    assert_equal 2, all[1].value.size
+
+    yielded = []
+    assert_nil OpenSSL::ASN1.decode_all(StringIO.new(der)) { |obj| yielded << obj }
+    assert_equal 2, yielded.size
+    assert_equal "A", yielded[1].value[1].value
+
+    nodes = []
+    OpenSSL::ASN1.traverse(StringIO.new(der)) { |*args| nodes << args }
+    assert_equal [[0, 0, 2, 1, false, :UNIVERSAL, 2],
+                  [0, 3, 2, 6, true, :UNIVERSAL, 16],
+                  [1, 5, 2, 1, false, :UNIVERSAL, 2],
+                  [1, 8, 2, 1, false, :UNIVERSAL, 4]], nodes
+
+    assert_raise(IOError) { OpenSSL::ASN1.decode_all(der[0..-2]) }
+  end
+
+  def test_asn1_decode_all_and_traverse_break
+    require 'stringio'
+    der = "\x02\x01\x01" + "\x30\x06\x02\x01\x02\x04\x01\x41"
+    first = OpenSSL::ASN1.decode_all(StringIO.new(der)) { |obj| break obj }
+    assert_equal 1, first.value.to_i
+
+    caught = catch(:done) do
+      OpenSSL::ASN1.decode_all(der) { |obj| throw :done, obj }
+    end
+    assert_equal 1, caught.value.to_i
+
+    depth = OpenSSL::ASN1.traverse(der) { |*args| break args[0] }
+    assert_equal 0, depth
+
+    nodes = OpenSSL::ASN1.traverse(der).to_a
+    assert_equal 4, nodes.size
+    assert_equal [1, 8, 2, 1, false, :UNIVERSAL, 4], nodes.last
+  end
+
+  def test_crl_index_shared_across_verifications
+    require File.join(File.dirname(__FILE__), "openssl", "utils.rb")
+    now = Time.now
+    ca = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=CA")
+    ee = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=EE")
+    ca_key = OpenSSL::TestUtils::TEST_KEY_RSA1024
+    ee_key = OpenSSL::TestUtils::TEST_KEY_DSA256
+    ca_exts = [["basicConstraints", "CA:TRUE", true], ["keyUsage", "keyCertSign, cRLSign", true]]
+    ca_cert = OpenSSL::TestUtils.issue_cert(ca, ca_key, 1, now, now + 3600, ca_exts,
+                                            nil, nil, OpenSSL::Digest::SHA1.new)
+    good = OpenSSL::TestUtils.issue_cert(ee, ee_key, 10, now, now + 1800, [],
+                                         ca_cert, ca_key, OpenSSL::Digest::SHA1.new)
+    bad = OpenSSL::TestUtils.issue_cert(ee, ee_key, 2**80 + 20, now, now + 1800, [],
+                                        ca_cert, ca_key, OpenSSL::Digest::SHA1.new)
+    revoked = (1..50).map { |i| [2**80 + i, now, 1] }
+    crl = OpenSSL::TestUtils.issue_crl(revoked, 1, now, now + 1800, [],
+                                       ca_cert, ca_key, OpenSSL::Digest::SHA1.new)
+
+    2.times do
+      store = OpenSSL::X509::Store.new
+      store.purpose = OpenSSL::X509::PURPOSE_ANY
+      store.flags = OpenSSL::X509::V_FLAG_CRL_CHECK
+      store.add_cert(ca_cert)
+      store.add_crl(crl)
+      assert_equal true, store.verify(good)
+      assert_equal false, store.verify(bad)
+      assert_equal OpenSSL::X509::V_ERR_CERT_REVOKED, store.error
+    end
+
+    stats = OpenSSL::X509::Store.crl_index_stats
+    assert stats["size"] >= 1
+    assert stats["serials"] >= 50
+    assert stats["bytes"] > 0
+  end
+
+  def test_parsed_crl_revoked_entries
+    require File.join(File.dirname(__FILE__), "openssl", "utils.rb")
+    now = Time.at(Time.now.to_i)
+    ca = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=CA")
+    ca_key = OpenSSL::TestUtils::TEST_KEY_RSA1024
+    ca_exts = [["basicConstraints", "CA:TRUE", true], ["keyUsage", "keyCertSign, cRLSign", true]]
+    ca_cert = OpenSSL::TestUtils.issue_cert(ca, ca_key, 1, now, now + 3600, ca_exts,
+                                            nil, nil, OpenSSL::Digest::SHA1.new)
+    revoked = [[5, now, 1], [2**70, now - 60, 1], [7, now, 1]]
+    signed = OpenSSL::TestUtils.issue_crl(revoked, 3, now, now + 1800, [],
+                                          ca_cert, ca_key, OpenSSL::Digest::SHA1.new)
+
+    crl = OpenSSL::X509::CRL.new(signed.to_der)
+    assert_equal signed.to_der, crl.to_der
+    assert_equal ca_cert.subject.to_s, crl.issuer.to_s
+    assert_equal now.to_i, crl.last_update.to_i
+    assert_equal((now + 1800).to_i, crl.next_update.to_i)
+    assert_equal ["crlNumber"], crl.extensions.map { |e| e.oid }
+
+    streamed = []
+    crl.each_revoked { |r| streamed << [r.serial.to_i, r.time.to_i] }
+    assert_equal [[5, now.to_i], [2**70, (now - 60).to_i], [7, now.to_i]], streamed
+    assert_equal [5, 2**70, 7], crl.revoked.map { |r| r.serial.to_i }
+    assert crl.verify(ca_cert.public_key)
+
+    assert_equal 3, OpenSSL::X509::CRL.new(signed.to_pem).revoked.size
+  end
 end
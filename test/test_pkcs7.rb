@@ -0,0 +1,165 @@
+if defined?(JRUBY_VERSION)
+  require "java"
+  base = File.dirname(__FILE__)
+  $CLASSPATH << File.join(base, '..', 'pkg', 'classes')
+  $CLASSPATH << File.join(base, '..', 'lib', 'bcprov-jdk14-139.jar')
+end
+
+begin
+  require "openssl"
+  require File.join(File.dirname(__FILE__), "openssl", "utils.rb")
+rescue LoadError
+end
+
+require "test/unit"
+require "stringio"
+
+class TestPKCS7 < Test::Unit::TestCase
+  def setup
+    @key = OpenSSL::TestUtils::TEST_KEY_RSA1024
+    now = Time.now
+    name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=PKCS7")
+    exts = [["keyUsage", "digitalSignature,keyEncipherment", true]]
+    @cert = OpenSSL::TestUtils.issue_cert(name, @key, 1, now, now + 3600, exts,
+                                          nil, nil, OpenSSL::Digest::SHA1.new)
+    @store = OpenSSL::X509::Store.new
+    @store.add_cert(@cert)
+    @content = "line one\nline two\n" * 2000
+  end
+
+  def test_sign_and_verify_detached_from_io
+    flags = OpenSSL::PKCS7::DETACHED | OpenSSL::PKCS7::BINARY
+    p7 = OpenSSL::PKCS7.sign(@cert, @key, StringIO.new(@content), [], flags)
+    assert_nil p7.data
+
+    p7 = OpenSSL::PKCS7.new(p7.to_der)
+    assert p7.verify([], @store, StringIO.new(@content), OpenSSL::PKCS7::BINARY)
+    assert !p7.verify([], @store, StringIO.new(@content + "x"), OpenSSL::PKCS7::BINARY)
+    assert p7.verify([], @store, @content, OpenSSL::PKCS7::BINARY)
+  end
+
+  def test_new_from_io
+    flags = OpenSSL::PKCS7::DETACHED | OpenSSL::PKCS7::BINARY
+    sig = OpenSSL::PKCS7.sign(@cert, @key, @content, [], flags)
+
+    p7 = OpenSSL::PKCS7.new(StringIO.new(sig.to_der))
+    assert_equal sig.to_der, p7.to_der
+    assert p7.verify([], @store, @content, OpenSSL::PKCS7::BINARY)
+
+    p7 = OpenSSL::PKCS7.new(StringIO.new(sig.to_pem))
+    assert_equal sig.to_der, p7.to_der
+  end
+
+  def test_encrypt_from_io_and_decrypt_to_io
+    cipher = OpenSSL::Cipher::Cipher.new("DES-EDE3-CBC")
+    p7 = OpenSSL::PKCS7.encrypt([@cert], StringIO.new(@content), cipher, OpenSSL::PKCS7::BINARY)
+    p7 = OpenSSL::PKCS7.new(p7.to_der)
+
+    out = StringIO.new
+    assert_same out, p7.decrypt(@key, @cert, 0, out)
+    assert_equal @content, out.string
+    assert_equal @content, p7.decrypt(@key, @cert)
+  end
+
+  def test_verify_several_signers
+    other_key = OpenSSL::TestUtils::TEST_KEY_RSA2048
+    name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=PKCS7 cosigner")
+    exts = [["keyUsage", "digitalSignature,keyEncipherment", true]]
+    other = OpenSSL::TestUtils.issue_cert(name, other_key, 2, Time.now, Time.now + 3600, exts,
+                                          nil, nil, OpenSSL::Digest::SHA1.new)
+    @store.add_cert(other)
+
+    flags = OpenSSL::PKCS7::DETACHED | OpenSSL::PKCS7::BINARY
+    p7 = OpenSSL::PKCS7.sign(@cert, @key, @content, [], flags)
+    p7.add_signer(OpenSSL::PKCS7.sign(other, other_key, @content, [], flags).signers[0])
+    p7 = OpenSSL::PKCS7.new(p7.to_der)
+    assert_equal 2, p7.signers.size
+
+    certs = [@cert, other]
+    assert p7.verify(certs, @store, @content, OpenSSL::PKCS7::BINARY)
+    assert !p7.verify(certs, @store, @content + "x", OpenSSL::PKCS7::BINARY)
+    assert !p7.verify(certs, OpenSSL::X509::Store.new, @content, OpenSSL::PKCS7::BINARY)
+  end
+
+  def test_encrypt_to_many_recipients
+    keys = [@key, OpenSSL::TestUtils::TEST_KEY_RSA2048]
+    now = Time.now
+    certs = (1..40).map do |i|
+      name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=recipient#{i}")
+      OpenSSL::TestUtils.issue_cert(name, keys[i % 2], i, now, now + 3600, [],
+                                    nil, nil, OpenSSL::Digest::SHA1.new)
+    end
+    cipher = OpenSSL::Cipher::Cipher.new("DES-EDE3-CBC")
+    p7 = OpenSSL::PKCS7.encrypt(certs, @content, cipher, OpenSSL::PKCS7::BINARY)
+    p7 = OpenSSL::PKCS7.new(p7.to_der)
+    assert_equal 40, p7.recipients.size
+    [certs.first, certs[17], certs.last].each do |cert|
+      assert_equal @content, p7.decrypt(keys[cert.serial.to_i % 2], cert)
+    end
+  end
+
+  def test_encrypt_fails_for_recipient_key_that_cannot_wrap
+    now = Time.now
+    name = OpenSSL::X509::Name.parse("/DC=org/DC=ruby-lang/CN=dsa recipient")
+    dsa_cert = OpenSSL::TestUtils.issue_cert(name, OpenSSL::TestUtils::TEST_KEY_DSA512, 2,
+                                             now, now + 3600, [], @cert, @key,
+                                             OpenSSL::Digest::SHA1.new)
+    cipher = OpenSSL::Cipher::Cipher.new("DES-EDE3-CBC")
+    assert_raises(NativeException) do
+      OpenSSL::PKCS7.encrypt([@cert, dsa_cert], @content, cipher, OpenSSL::PKCS7::BINARY)
+    end
+  end
+
+  def test_read_smime_streams_signed_content
+    part = "Content-Type: text/plain\r\n\r\n" + (["line one", "line two"] * 500).join("\r\n")
+    flags = OpenSSL::PKCS7::DETACHED | OpenSSL::PKCS7::BINARY
+    sig = OpenSSL::PKCS7.sign(@cert, @key, part, [], flags)
+    msg = "MIME-Version: 1.0\r\n" +
+      "Content-Type: multipart/signed; protocol=\"application/pkcs7-signature\"; micalg=sha1; boundary=\"XYZ\"\r\n\r\n" +
+      "This is an S/MIME signed message\r\n\r\n" +
+      "--XYZ\r\n" + part + "\r\n" +
+      "--XYZ\r\n" +
+      "Content-Type: application/pkcs7-signature; name=\"smime.p7s\"\r\n" +
+      "Content-Transfer-Encoding: base64\r\n\r\n" +
+      [sig.to_der].pack("m").gsub("\n", "\r\n") + "\r\n" +
+      "--XYZ--\r\n"
+
+    content = StringIO.new
+    p7 = OpenSSL::PKCS7.read_smime(StringIO.new(msg), content)
+    assert_nil p7.data
+    assert_equal part, content.string
+    assert p7.verify([], @store, nil, OpenSSL::PKCS7::BINARY)
+    assert_nil p7.data
+
+    p7 = OpenSSL::PKCS7.read_smime(StringIO.new(msg.sub("line two", "line 2")))
+    assert !p7.verify([], @store, nil, OpenSSL::PKCS7::BINARY)
+
+    p7 = OpenSSL::PKCS7.read_smime(msg)
+    assert_equal part, p7.data
+    assert p7.verify([], @store, nil, OpenSSL::PKCS7::BINARY)
+  end
+
+  def test_read_smime_streams_signer_not_first_digest
+    part = "Content-Type: text/plain\r\n\r\nsigned with sha1, announced as sha-256"
+    flags = OpenSSL::PKCS7::DETACHED | OpenSSL::PKCS7::BINARY
+    sig = OpenSSL::PKCS7.sign(@cert, @key, part, [], flags)
+    msg = "MIME-Version: 1.0\r\n" +
+      "Content-Type: multipart/signed; protocol=\"application/pkcs7-signature\"; micalg=sha-256; boundary=\"XYZ\"\r\n\r\n" +
+      "--XYZ\r\n" + part + "\r\n" +
+      "--XYZ\r\n" +
+      "Content-Type: application/pkcs7-signature; name=\"smime.p7s\"\r\n" +
+      "Content-Transfer-Encoding: base64\r\n\r\n" +
+      [sig.to_der].pack("m").gsub("\n", "\r\n") + "\r\n" +
+      "--XYZ--\r\n"
+
+    # the sha-256 digest comes first in the chain, so verify has to walk
+    # past it to the sha1 one this signer uses
+    content = StringIO.new
+    p7 = OpenSSL::PKCS7.read_smime(StringIO.new(msg), content)
+    assert_equal part, content.string
+    assert p7.verify([], @store, nil, OpenSSL::PKCS7::BINARY)
+
+    p7 = OpenSSL::PKCS7.read_smime(StringIO.new(msg.sub("announced", "claimed")))
+    assert !p7.verify([], @store, nil, OpenSSL::PKCS7::BINARY)
+  end
+end
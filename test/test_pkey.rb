@@ -18,9 +18,9 @@ class TestPKey < Test::Unit::TestCase
     assert_equal ["sign", "verify"], pkey_methods
 
     rsa_methods = OpenSSL::PKey::RSA.instance_methods(false).sort - ["initialize"]
-    assert_equal ["d", "d=", "dmp1", "dmp1=", "dmq1", "dmq1=", "e", "e=", "export", "iqmp", "iqmp=", "n", "n=", "p", "p=", "params", "private?", "private_decrypt", "private_encrypt", "public?", "public_decrypt", "public_encrypt", "public_key", "q", "q=", "to_der", "to_pem", "to_s", "to_text"], rsa_methods
+    assert_equal ["d", "d=", "dmp1", "dmp1=", "dmq1", "dmq1=", "e", "e=", "export", "iqmp", "iqmp=", "n", "n=", "p", "p=", "params", "private?", "private_decrypt", "private_decrypt_all", "private_encrypt", "private_encrypt_all", "public?", "public_decrypt", "public_decrypt_all", "public_encrypt", "public_encrypt_all", "public_key", "q", "q=", "to_der", "to_pem", "to_s", "to_text", "verify_all"], rsa_methods
 
-    assert_equal ["generate"], OpenSSL::PKey::RSA.methods(false)
+    assert_equal ["disable_pool", "enable_pool", "generate", "pool_stats"], OpenSSL::PKey::RSA.methods(false).sort
     
 #     dsa_methods = OpenSSL::PKey::DSA.instance_methods(false).sort - ["initialize"]
 #     assert_equal ["export", "g", "g=", "p", "p=", "params", "priv_key", "priv_key=", "private?", "pub_key", "pub_key=", "public?", "public_key", "q", "q=", "syssign", "sysverify", "to_der", "to_pem", "to_s", "to_text"], dsa_methods
@@ -43,4 +43,105 @@ class TestPKey < Test::Unit::TestCase
 
   def test_can_generate_dsa_key
   end
+
+  def test_load_rsa_key_from_each_encoding
+    key = OpenSSL::PKey::RSA.generate(512)
+    [key.to_pem, key.to_der].each do |input|
+      loaded = OpenSSL::PKey::RSA.new(input)
+      assert loaded.private?
+      assert_equal key.n.to_s, loaded.n.to_s
+    end
+    [key.public_key.to_pem, key.public_key.to_der].each do |input|
+      loaded = OpenSSL::PKey::RSA.new(input)
+      assert !loaded.private?
+      assert_equal key.n.to_s, loaded.n.to_s
+    end
+  end
+
+  def test_load_dsa_key_from_each_encoding
+    require File.join(File.dirname(__FILE__), "openssl", "utils.rb")
+    key = OpenSSL::TestUtils::TEST_KEY_DSA512
+    [key.to_pem, key.to_der].each do |input|
+      loaded = OpenSSL::PKey::DSA.new(input)
+      assert loaded.private?
+      assert_equal key.pub_key.to_s, loaded.pub_key.to_s
+      assert_equal key.to_der, loaded.to_der
+    end
+    [key.public_key.to_pem, key.public_key.to_der].each do |input|
+      loaded = OpenSSL::PKey::DSA.new(input)
+      assert !loaded.private?
+      assert_equal key.pub_key.to_s, loaded.pub_key.to_s
+    end
+  end
+
+  def test_sign_and_verify_io
+    require 'stringio'
+    key = OpenSSL::PKey::RSA.generate(512)
+    digest = OpenSSL::Digest::SHA1.new
+    data = "x" * 200_000
+    sig = key.sign(digest, data)
+    assert_equal sig, key.sign(digest, StringIO.new(data))
+    3.times do
+      assert key.verify(digest, sig, data)
+      assert key.verify(digest, sig, StringIO.new(data))
+      assert !key.verify(digest, sig, data + "y")
+    end
+  end
+
+  def test_rsa_key_pair_pool
+    OpenSSL::PKey::RSA.enable_pool(512, 2, 3)
+    key = OpenSSL::PKey::RSA.generate(512, 3)
+    assert key.private?
+    assert_equal 3, key.e.to_i
+    stats = OpenSSL::PKey::RSA.pool_stats["512:3"]
+    assert_equal 2, stats["capacity"]
+    assert_equal 1, stats["hits"] + stats["misses"]
+  ensure
+    OpenSSL::PKey::RSA.disable_pool(512, 3)
+  end
+
+  def test_dh_well_known_group
+    dh = OpenSSL::PKey::DH.group(:ffdhe2048)
+    assert_equal 2048, dh.p.num_bits
+    assert_equal 2, dh.g.to_i
+    assert_not_equal dh.p.to_s, OpenSSL::PKey::DH.group("modp2048").p.to_s
+    dh.generate_key!
+    assert dh.private?
+    assert_raises(OpenSSL::PKey::DHError) { OpenSSL::PKey::DH.group(:nonexistent) }
+  end
+
+  def test_dh_parameters_are_cached
+    OpenSSL::PKey::DH.precompute(128, 5)
+    assert_equal OpenSSL::PKey::DH.new(128, 5).p.to_s, OpenSSL::PKey::DH.new(128, 5).p.to_s
+  end
+
+  def test_rsa_batch_operations
+    key = OpenSSL::PKey::RSA.generate(512)
+    plain = (1..40).map { |i| "message #{i}" }
+    encrypted = key.public_encrypt_all(plain)
+    assert_equal 40, encrypted.size
+    assert_equal plain, key.private_decrypt_all(encrypted)
+    assert_equal plain[3], key.private_decrypt(encrypted[3])
+    signed = key.private_encrypt_all(plain, OpenSSL::PKey::RSA::PKCS1_PADDING)
+    assert_equal plain, key.public_decrypt_all(signed)
+
+    digest = OpenSSL::Digest::SHA1.new
+    pairs = plain.map { |m| [key.sign(digest, m), m] }
+    pairs << [pairs[0][0], "tampered"]
+    results = key.verify_all(digest, pairs)
+    assert_equal [true] * 40 + [false], results
+  end
+
+  def test_rsa_private_operations_across_blinding_refresh
+    key = OpenSSL::PKey::RSA.generate(512)
+    40.times do |i|
+      msg = "message #{i}"
+      assert_equal msg, key.private_decrypt(key.public_encrypt(msg))
+      assert_equal msg, key.public_decrypt(key.private_encrypt(msg))
+    end
+    oaep = key.public_encrypt("oaep", OpenSSL::PKey::RSA::PKCS1_OAEP_PADDING)
+    assert_equal "oaep", key.private_decrypt(oaep, OpenSSL::PKey::RSA::PKCS1_OAEP_PADDING)
+    assert_equal key.private_encrypt("same"), key.private_encrypt("same")
+    assert_raises(OpenSSL::PKey::RSAError) { key.private_decrypt("garbage" * 10) }
+  end
 end
@@ -0,0 +1,145 @@
+if defined?(JRUBY_VERSION)
+  require "java"
+  base = File.dirname(__FILE__)
+  $CLASSPATH << File.join(base, '..', 'pkg', 'classes')
+  $CLASSPATH << File.join(base, '..', 'lib', 'bcprov-jdk14-139.jar')
+end
+
+begin
+  require "openssl"
+rescue LoadError
+end
+
+require "test/unit"
+require "tempfile"
+
+class TestRandom < Test::Unit::TestCase
+  def test_random_bytes
+    assert_equal 16, OpenSSL::Random.random_bytes(16).size
+    assert_equal 16, OpenSSL::Random.pseudo_bytes(16).size
+    assert_not_equal OpenSSL::Random.random_bytes(16), OpenSSL::Random.random_bytes(16)
+  end
+
+  def test_seed_returns_argument
+    str = "some entropy"
+    assert_same str, OpenSSL::Random.seed(str)
+  end
+
+  def test_write_and_load_random_file
+    file = Tempfile.new("jopenssl_rand")
+    path = file.path
+    file.close
+    assert OpenSSL::Random.write_random_file(path)
+    assert_equal 1024, File.size(path)
+    assert OpenSSL::Random.load_random_file(path)
+  ensure
+    file.unlink if file
+  end
+
+  def test_load_missing_random_file
+    assert_raises(OpenSSL::Random::RandomError) do
+      OpenSSL::Random.load_random_file("/nonexistent/jopenssl/random/file")
+    end
+  end
+
+  def test_random_bytes_from_threads
+    threads = (1..8).map do
+      Thread.new { (1..100).map { OpenSSL::Random.random_bytes(32) } }
+    end
+    results = threads.map { |t| t.value }.flatten
+    assert_equal 800, results.uniq.size
+  end
+
+  if defined?(JRUBY_VERSION)
+    RandomService = org.jruby.ext.openssl.RandomService
+
+    class CountingRandom < java.security.SecureRandom
+      def count
+        @count || 0
+      end
+
+      def nextBytes(bytes)
+        @count = count + 1
+        super
+      end
+    end
+
+    def test_service_algorithm_selection
+      previous = RandomService.getAlgorithm
+      others = java.security.Security.getAlgorithms("SecureRandom").to_a
+      algorithm = others.find { |a| a.upcase != previous.upcase } || previous
+      begin
+        RandomService.setAlgorithm(algorithm)
+        assert_equal algorithm.upcase, RandomService.getAlgorithm.upcase
+        assert_equal algorithm.upcase, RandomService.getSecureRandom.getAlgorithm.upcase
+        assert_equal 16, OpenSSL::Random.random_bytes(16).size
+      ensure
+        RandomService.setAlgorithm(previous)
+      end
+      assert_equal previous.upcase, RandomService.getSecureRandom.getAlgorithm.upcase
+    end
+
+    def test_service_rejects_unknown_algorithm
+      previous = RandomService.getAlgorithm
+      assert_raises(NativeException) { RandomService.setAlgorithm("NoSuchPRNG") }
+      assert_equal previous, RandomService.getAlgorithm
+      assert_equal previous.upcase, RandomService.getSecureRandom.getAlgorithm.upcase
+    end
+
+    def seeded_prng
+      random = java.security.SecureRandom.getInstance("SHA1PRNG")
+      random.setSeed("fixed".to_java_bytes)
+      random
+    end
+
+    def random_bytes_after
+      RandomService.setSecureRandom(seeded_prng)
+      yield
+      OpenSSL::Random.random_bytes(16)
+    ensure
+      RandomService.setSecureRandom(nil)
+    end
+
+    def test_load_random_file_reads_special_files
+      return unless File.exist?("/dev/zero")
+      assert_equal 0, File.size("/dev/zero")
+      unseeded = random_bytes_after { }
+      seeded = random_bytes_after { assert OpenSSL::Random.load_random_file("/dev/zero") }
+      assert_not_equal unseeded, seeded
+      assert_equal seeded, random_bytes_after { OpenSSL::Random.load_random_file("/dev/zero") }
+      assert OpenSSL::Random.load_random_file("/dev/urandom") if File.exist?("/dev/urandom")
+    end
+
+    def test_callers_draw_from_service
+      require File.join(File.dirname(__FILE__), "openssl", "utils.rb")
+      rsa = OpenSSL::TestUtils::TEST_KEY_RSA1024
+      dh = OpenSSL::PKey::DH.group(:ffdhe2048)
+      cert = OpenSSL::X509::Certificate.new
+      cert.public_key = rsa.public_key
+      cert.not_before = cert.not_after = Time.now
+      cert.issuer = cert.subject = OpenSSL::X509::Name.parse("/CN=random")
+      cert.sign(rsa, OpenSSL::Digest::SHA1.new)
+
+      callers = {
+        "Random" => lambda { OpenSSL::Random.random_bytes(16) },
+        "BN" => lambda { OpenSSL::BN.rand(64) },
+        "PKeyDH" => lambda { dh.generate_key! },
+        "PKeyRSA" => lambda { rsa.private_encrypt("data") },
+        "PEMInputOutput" => lambda { rsa.to_pem(OpenSSL::Cipher::Cipher.new("DES-EDE3-CBC"), "secret") },
+        "PKCS7" => lambda { OpenSSL::PKCS7.encrypt([cert], "data", OpenSSL::Cipher::Cipher.new("DES-EDE3-CBC")) }
+      }
+      callers.each do |name, call|
+        random = CountingRandom.new
+        RandomService.setSecureRandom(random)
+        begin
+          # a fresh key so earlier blinding does not hide the draw
+          rsa = OpenSSL::PKey::RSA.new(rsa.to_der) if name == "PKeyRSA"
+          call.call
+        ensure
+          RandomService.setSecureRandom(nil)
+        end
+        assert random.count > 0, "#{name} did not draw from RandomService"
+      end
+    end
+  end
+end